@@ -0,0 +1,77 @@
+package org.pathvisio.merger;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What one pathway adds to the merged network: its nodes with
+ * the attributes they get if the pathway is the first to have
+ * them, and its edges in document order. Contributions do not
+ * depend on the position of the pathway, ids of pathway local
+ * nodes (groups and anchors) are prefixed with the pathway index
+ * when they are added to a graph by {@link PartialGraph#add}.
+ *
+ * @author mkutmon
+ *
+ */
+class Contribution implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	static class NodeEntry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		String id;
+		// group or anchor node, only unique within the pathway
+		boolean local;
+		String geneId;
+		String unifiedId;
+		String label;
+		String type;
+		// the node lists the pathway in its memberships
+		boolean member = true;
+		// the node reports its number of pathways
+		boolean count = false;
+	}
+
+	static class EdgeEntry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		// explicit edge id, otherwise the edge is keyed by its nodes
+		String id;
+		int source;
+		int target;
+		String type;
+		// append the type if the edge already exists
+		boolean append;
+		boolean member = true;
+	}
+
+	String name;
+	String file;
+	int elements;
+	int genes;
+	int metabolites;
+	int pathways;
+	int groups;
+	int lines;
+
+	final List<NodeEntry> nodes = new ArrayList<NodeEntry>();
+	final List<EdgeEntry> edges = new ArrayList<EdgeEntry>();
+
+	NodeEntry addNode(String id) {
+		NodeEntry node = new NodeEntry();
+		node.id = id;
+		nodes.add(node);
+		return node;
+	}
+
+	EdgeEntry addEdge(int source, int target, String type) {
+		EdgeEntry edge = new EdgeEntry();
+		edge.source = source;
+		edge.target = target;
+		edge.type = type;
+		edges.add(edge);
+		return edge;
+	}
+}
@@ -0,0 +1,296 @@
+package org.pathvisio.merger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.pathvisio.merger.Contribution.EdgeEntry;
+import org.pathvisio.merger.Contribution.NodeEntry;
+import org.pathvisio.merger.PathwayContent.Kind;
+import org.pathvisio.merger.RunMetrics.Phase;
+
+/**
+ * Maps the data nodes of a pathway to their unified identifiers
+ * and turns the pathway into its {@link Contribution} to the
+ * merged or the association network. The builder keeps no state
+ * between pathways.
+ *
+ * @author mkutmon
+ *
+ */
+class ContributionBuilder {
+
+	private IDMapper geneMapper;
+	private IDMapper metMapper;
+	private AttributeMapper geneAttr;
+	private RunMetrics metrics = new RunMetrics();
+
+	ContributionBuilder(IDMapper geneMapper, IDMapper metMapper, AttributeMapper geneAttr) {
+		this.geneMapper = geneMapper;
+		this.metMapper = metMapper;
+		this.geneAttr = geneAttr;
+	}
+
+	/**
+	 * mapping and label lookups are recorded in these metrics
+	 */
+	void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	RunMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * the data nodes, groups and interactions of the pathway
+	 */
+	Contribution createNetwork(PathwayContent content) throws IDMapperException {
+		Contribution c = create(content);
+		Nodes nodes = new Nodes(c);
+		for(int i = 0; i < content.dataNodes.size(); i++) {
+			createNode(nodes, content.dataNodes.get(i), content.kinds.get(i));
+		}
+		for(GpmlElement e : content.groups) {
+			createGroup(nodes, e, content);
+		}
+		for(GpmlElement e : content.lines) {
+			createEdge(nodes, e, content);
+		}
+		return c;
+	}
+
+	/**
+	 * a node for the pathway connected to all its genes
+	 */
+	Contribution createAssociations(PathwayContent content) throws IDMapperException {
+		Contribution c = create(content);
+		Nodes nodes = new Nodes(c);
+		NodeEntry p = c.addNode(content.file);
+		p.label = content.name;
+		p.type = "pathway";
+		p.member = false;
+		int genes = 0;
+		Set<Integer> geneList = new HashSet<Integer>();
+		for(int i = 0; i < content.dataNodes.size(); i++) {
+			if(content.kinds.get(i) == Kind.GENE) {
+				GpmlElement e = content.dataNodes.get(i);
+				genes++;
+				createNode(nodes, e, Kind.GENE);
+				Integer gene = nodes.map.get(e);
+				if(geneList.add(gene)) {
+					EdgeEntry edge = c.addEdge(0, gene, "Pathway-Gene Association");
+					edge.id = content.file + "_" + genes;
+					edge.append = true;
+					edge.member = false;
+				}
+			}
+		}
+		return c;
+	}
+
+	private Contribution create(PathwayContent content) {
+		Contribution c = new Contribution();
+		c.name = content.name;
+		c.file = content.file;
+		c.elements = content.elements;
+		c.genes = content.genes;
+		c.metabolites = content.metabolites;
+		c.pathways = content.pathways;
+		c.groups = content.groups.size();
+		c.lines = content.lines.size();
+		return c;
+	}
+
+	/**
+	 * nodes of the contribution, by element and by id. Group and
+	 * anchor ids are kept apart from the data node ids, they can
+	 * be the same strings
+	 */
+	private static class Nodes {
+		final Contribution contribution;
+		final Map<GpmlElement, Integer> map = new HashMap<GpmlElement, Integer>();
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+		final Map<String, Integer> localIds = new HashMap<String, Integer>();
+
+		Nodes(Contribution contribution) {
+			this.contribution = contribution;
+		}
+
+		/**
+		 * @return the existing node with that id or null if the
+		 * caller has to fill in the new node
+		 */
+		NodeEntry add(GpmlElement e, String id, boolean local) {
+			Map<String, Integer> ids = local ? localIds : this.ids;
+			Integer index = ids.get(id);
+			if(index != null) {
+				map.put(e, index);
+				return null;
+			}
+			index = contribution.nodes.size();
+			NodeEntry node = contribution.addNode(id);
+			node.local = local;
+			ids.put(id, index);
+			map.put(e, index);
+			return node;
+		}
+
+		void addEdge(GpmlElement source, GpmlElement target, String type) {
+			contribution.addEdge(map.get(source), map.get(target), type);
+		}
+	}
+
+	/**
+	 * group members are taken in document order, so the order of
+	 * the group edges does not depend on hash codes
+	 */
+	private void createGroup(Nodes nodes, GpmlElement e, PathwayContent content) {
+		List<GpmlElement> list = new ArrayList<GpmlElement>();
+		List<GpmlElement> members = content.groupMembers.get(e.groupId);
+		if(members != null) {
+			for(GpmlElement groupElement : members) {
+				if(nodes.map.containsKey(groupElement)) {
+					list.add(groupElement);
+				}
+			}
+		}
+		if(list.size() >= 2) {
+			NodeEntry groupNode = nodes.add(e, e.groupId, true);
+			if(groupNode != null) {
+				groupNode.type = "Group";
+			}
+			for(GpmlElement element : list) {
+				nodes.addEdge(element, e, "Group");
+			}
+		}
+	}
+
+	private void createEdge(Nodes nodes, GpmlElement line, PathwayContent content) {
+		Map<GpmlElement, Integer> map = nodes.map;
+		GpmlElement start = content.getElementById(line.startRef);
+		GpmlElement end = content.getElementById(line.endRef);
+		if(line.anchors.size() == 0) {
+			if(start != null && end != null) {
+				if(map.containsKey(start) && map.containsKey(end)) {
+					nodes.addEdge(start, end, line.startType);
+				}
+			}
+		} else {
+			List<GpmlElement> list = new ArrayList<GpmlElement>();
+			if(start != null && map.containsKey(start)) list.add(start);
+			if(end != null && map.containsKey(end)) list.add(end);
+			for(String anchor : line.anchors) {
+				List<GpmlElement> attached = content.linesByRef.get(anchor);
+				if(attached == null) continue;
+				for(GpmlElement l : attached) {
+					if(l.startRef.equals(anchor)) {
+						if(map.containsKey(content.getElementById(l.endRef))) {
+							list.add(content.getElementById(l.endRef));
+						}
+					} else {
+						if(map.containsKey(content.getElementById(l.startRef))) {
+							list.add(content.getElementById(l.startRef));
+						}
+					}
+				}
+			}
+			if(list.size() == 2) {
+				nodes.addEdge(list.get(0), list.get(1), "Anchor");
+			} else if (list.size() > 2) {
+				NodeEntry anchorNode = nodes.add(line, line.anchors.get(0), true);
+				if(anchorNode != null) {
+					anchorNode.type = "Anchor";
+				}
+				for(GpmlElement element : list) {
+					int source = map.get(element);
+					nodes.contribution.addEdge(source, map.get(line), "Anchor").append = true;
+				}
+			}
+		}
+	}
+
+	private void createNode(Nodes nodes, GpmlElement e, Kind kind) throws IDMapperException {
+		if(kind != Kind.GENE && kind != Kind.METABOLITE) {
+			NodeEntry node = nodes.add(e, e.xref.getId(), false);
+			if(node != null) {
+				node.geneId = e.xref.getId();
+				node.unifiedId = "";
+				node.label = e.textLabel;
+				node.count = true;
+				node.type = e.dataNodeType;
+			}
+		} else {
+			Xref unifiedId = unify(e.xref, kind);
+			if(unifiedId != null) {
+				NodeEntry node = nodes.add(e, unifiedId.getId(), false);
+				if(node != null) {
+					node.geneId = e.xref.getId();
+					node.unifiedId = unifiedId.getId();
+					node.label = getLabel(e, kind, unifiedId);
+					node.count = true;
+					node.type = e.dataNodeType;
+				}
+			} else {
+				NodeEntry node = nodes.add(e, e.xref.getId(), false);
+				if(node != null) {
+					node.geneId = e.xref.getId();
+					node.label = getLabel(e, kind, e.xref);
+					node.count = true;
+					node.type = e.dataNodeType;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * the unified id of a gene or metabolite, Ensembl or HMDB, or
+	 * null if the xref does not map to it
+	 */
+	Xref unify(Xref xref, Kind kind) throws IDMapperException {
+		IDMapper mapper = kind == Kind.GENE ? geneMapper : metMapper;
+		String syscode = getSystemCode(xref);
+		if(syscode == null) {
+			return null;
+		}
+		if(syscode.equals(kind.systemCode)) {
+			return xref;
+		}
+		long start = System.nanoTime();
+		Set<Xref> res = mapper.mapID(xref, DataSource.getExistingBySystemCode(kind.systemCode));
+		metrics.record(Phase.MAPPING, start, 1);
+		return res.size() != 0 ? res.iterator().next() : null;
+	}
+
+	static String getSystemCode(Xref xref) {
+		if(xref.getDataSource().getFullName().equals("Uniprot/TrEMBL")) {
+			return "S";
+		} else {
+			return xref.getDataSource().getSystemCode();
+		}
+	}
+	
+	private String getLabel(GpmlElement element, Kind kind, Xref xref) throws IDMapperException {
+		if(kind == Kind.METABOLITE) {
+			return element.textLabel;
+		} else {
+			long start = System.nanoTime();
+			Map<String, Set<String>> attrMap = geneAttr.getAttributes(xref);
+			metrics.record(Phase.LABELS, start, 1);
+			Set<String> symbol = attrMap.get("Symbol");
+			if(symbol != null && symbol.size() > 0) {
+				return symbol.iterator().next();
+			} else {
+				return element.textLabel;
+			}
+		}
+	}
+}
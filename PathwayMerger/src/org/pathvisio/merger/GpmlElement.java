@@ -0,0 +1,64 @@
+package org.pathvisio.merger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.bridgedb.Xref;
+import org.pathvisio.core.model.MLine;
+import org.pathvisio.core.model.ObjectType;
+import org.pathvisio.core.model.PathwayElement;
+import org.pathvisio.core.model.PathwayElement.MAnchor;
+
+/**
+ * The fields of a GPML element the merge looks at: the xref, type
+ * and label of data nodes, group ids and references, and the
+ * start and end references, start arrow head and anchors of
+ * interactions. Graphics, comments and literature are not kept.
+ *
+ * @author mkutmon
+ *
+ */
+class GpmlElement {
+
+	final ObjectType objectType;
+	String graphId;
+	String groupRef;
+	String groupId;
+	String dataNodeType;
+	String textLabel;
+	Xref xref;
+	String startRef;
+	String endRef;
+	String startType;
+	List<String> anchors = Collections.emptyList();
+
+	GpmlElement(ObjectType objectType) {
+		this.objectType = objectType;
+	}
+
+	/**
+	 * copies the fields from an element of the full PathVisio model
+	 */
+	GpmlElement(PathwayElement e) {
+		objectType = e.getObjectType();
+		graphId = e.getGraphId();
+		groupRef = e.getGroupRef();
+		groupId = e.getGroupId();
+		dataNodeType = e.getDataNodeType();
+		textLabel = e.getTextLabel();
+		xref = e.getXref();
+		if(objectType == ObjectType.LINE) {
+			MLine line = (MLine) e;
+			startRef = line.getStartGraphRef();
+			endRef = line.getEndGraphRef();
+			startType = line.getStartLineType().getName();
+			if(line.getMAnchors().size() > 0) {
+				anchors = new ArrayList<String>(line.getMAnchors().size());
+				for(MAnchor anchor : line.getMAnchors()) {
+					anchors.add(anchor.getGraphId());
+				}
+			}
+		}
+	}
+}
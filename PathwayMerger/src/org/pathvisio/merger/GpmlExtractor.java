@@ -0,0 +1,198 @@
+package org.pathvisio.merger;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.core.model.LineType;
+import org.pathvisio.core.model.ObjectType;
+
+/**
+ * Streams a GPML file with StAX and keeps only what the merge
+ * needs, without building the PathVisio object model and without
+ * validating the file. Graphics, comments, literature and all
+ * other attributes are skipped.
+ *
+ * Only GPML 2013a is read this way, the values are taken with the
+ * same defaults as PathVisio uses, so the contribution of a valid
+ * file does not depend on the reader. Files in an older format are
+ * left to the full model.
+ *
+ * @author mkutmon
+ *
+ */
+class GpmlExtractor {
+
+	static final String GPML_2013A = "http://pathvisio.org/GPML/2013a";
+
+	// elements PathVisio adds to the pathway, the info box is always there
+	private static final Map<String, ObjectType> TAGS = new HashMap<String, ObjectType>();
+	static {
+		TAGS.put("DataNode", ObjectType.DATANODE);
+		TAGS.put("State", ObjectType.STATE);
+		TAGS.put("Interaction", ObjectType.LINE);
+		TAGS.put("GraphicalLine", ObjectType.GRAPHLINE);
+		TAGS.put("Label", ObjectType.LABEL);
+		TAGS.put("Shape", ObjectType.SHAPE);
+		TAGS.put("Group", ObjectType.GROUP);
+		TAGS.put("Legend", ObjectType.LEGEND);
+		TAGS.put("Biopax", ObjectType.BIOPAX);
+	}
+
+	private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>() {
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			return factory;
+		}
+	};
+
+	/**
+	 * @param name name of the pathway in its source
+	 * @return the content of the file or null if it is not GPML 2013a
+	 */
+	static PathwayContent read(File file, String name) throws ConverterException {
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+			try {
+				return read(in, name);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new ConverterException(e);
+		}
+	}
+
+	/**
+	 * reads the GPML from the stream, the stream is not closed
+	 * @return the content or null if it is not GPML 2013a
+	 */
+	static PathwayContent read(InputStream in, String file) throws ConverterException {
+		try {
+			XMLStreamReader xml = FACTORY.get().createXMLStreamReader(in);
+			try {
+				return read(xml, file);
+			} finally {
+				xml.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new ConverterException(e);
+		}
+	}
+
+	private static PathwayContent read(XMLStreamReader xml, String file) throws XMLStreamException {
+		xml.nextTag();
+		if(!"Pathway".equals(xml.getLocalName()) || !GPML_2013A.equals(xml.getNamespaceURI())) {
+			return null;
+		}
+		PathwayContent content = new PathwayContent(xml.getAttributeValue(null, "Name"), file);
+		// PathVisio always creates the mapp info and the info box
+		content.elements = 2;
+
+		int depth = 1;
+		GpmlElement current = null;
+		boolean firstPoint = true;
+		while(xml.hasNext()) {
+			int event = xml.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				String tag = xml.getLocalName();
+				if(depth == 2) {
+					ObjectType type = TAGS.get(tag);
+					if(type != null) {
+						current = start(xml, type);
+						firstPoint = true;
+					}
+				} else if(current == null) {
+					continue;
+				} else if(depth == 3 && tag.equals("Xref") &&
+						(current.objectType == ObjectType.DATANODE || current.objectType == ObjectType.STATE)) {
+					String id = xml.getAttributeValue(null, "ID");
+					String database = xml.getAttributeValue(null, "Database");
+					current.xref = new Xref(id, getDataSource(database == null ? "" : database));
+				} else if(depth == 4 && current.objectType == ObjectType.LINE) {
+					if(tag.equals("Point")) {
+						current.endRef = xml.getAttributeValue(null, "GraphRef");
+						if(firstPoint) {
+							current.startRef = current.endRef;
+							current.startType = getLineType(xml.getAttributeValue(null, "ArrowHead"));
+							firstPoint = false;
+						}
+					} else if(tag.equals("Anchor")) {
+						if(current.anchors.isEmpty()) {
+							current.anchors = new ArrayList<String>(1);
+						}
+						current.anchors.add(xml.getAttributeValue(null, "GraphId"));
+					}
+				}
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				if(depth == 2 && current != null) {
+					content.add(current);
+					current = null;
+				}
+				depth--;
+			}
+		}
+		return content;
+	}
+
+	private static GpmlElement start(XMLStreamReader xml, ObjectType type) {
+		GpmlElement e = new GpmlElement(type);
+		e.graphId = xml.getAttributeValue(null, "GraphId");
+		String groupRef = xml.getAttributeValue(null, "GroupRef");
+		if(groupRef != null && !groupRef.equals("")) {
+			e.groupRef = groupRef;
+		}
+		if(type == ObjectType.GROUP) {
+			String groupId = xml.getAttributeValue(null, "GroupId");
+			if(groupId != null && !groupId.equals("")) {
+				e.groupId = groupId;
+			}
+		} else if(type == ObjectType.DATANODE) {
+			e.dataNodeType = valueOf(xml, "Type", "Unknown");
+			e.textLabel = xml.getAttributeValue(null, "TextLabel");
+		} else if(type == ObjectType.STATE) {
+			e.dataNodeType = valueOf(xml, "StateType", "Unknown");
+			e.textLabel = xml.getAttributeValue(null, "TextLabel");
+		}
+		return e;
+	}
+
+	/**
+	 * the data source the way PathVisio's GPML reader looks it up,
+	 * unknown names are registered without a system code
+	 */
+	@SuppressWarnings("deprecation")
+	private static DataSource getDataSource(String fullName) {
+		return DataSource.getByFullName(fullName);
+	}
+
+	/**
+	 * the name PathVisio reports for an arrow head, arrow heads
+	 * that are not registered are read as a plain line
+	 */
+	private static String getLineType(String arrowHead) {
+		LineType type = arrowHead == null ? null : LineType.fromName(arrowHead);
+		return (type == null ? LineType.LINE : type).getName();
+	}
+
+	private static String valueOf(XMLStreamReader xml, String name, String defaultValue) {
+		String value = xml.getAttributeValue(null, name);
+		return value == null ? defaultValue : value;
+	}
+}
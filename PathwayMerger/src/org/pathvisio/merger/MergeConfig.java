@@ -0,0 +1,127 @@
+package org.pathvisio.merger;
+
+import java.io.File;
+
+/**
+ * The settings of one merge job: which network is created, the
+ * mapping databases and how the pathways are read and merged.
+ * Setters return the config, so a job can be set up in one
+ * statement. A config is not changed by the engine and can be
+ * reused for several jobs.
+ *
+ * @author mkutmon
+ *
+ */
+public class MergeConfig {
+
+	private boolean associations = false;
+	private File geneDatabase;
+	private File metaboliteDatabase;
+	private int parserThreads = Runtime.getRuntime().availableProcessors();
+	private int mergeThreads = Runtime.getRuntime().availableProcessors();
+	private boolean streaming = false;
+	private boolean fastIngest = false;
+	private boolean prefetch = false;
+	private File snapshotFile;
+	private int progressInterval = 0;
+	private int shard = 0;
+	private int shards = 1;
+
+	/**
+	 * creates the gene association network instead of the merged network
+	 */
+	public MergeConfig setAssociations(boolean associations) {
+		this.associations = associations;
+		return this;
+	}
+
+	public MergeConfig setGeneDatabase(File geneDatabase) {
+		this.geneDatabase = geneDatabase;
+		return this;
+	}
+
+	public MergeConfig setMetaboliteDatabase(File metaboliteDatabase) {
+		this.metaboliteDatabase = metaboliteDatabase;
+		return this;
+	}
+
+	public MergeConfig setParserThreads(int parserThreads) {
+		this.parserThreads = parserThreads;
+		return this;
+	}
+
+	public MergeConfig setMergeThreads(int mergeThreads) {
+		this.mergeThreads = mergeThreads;
+		return this;
+	}
+
+	/**
+	 * keeps only a few parsed pathways ahead of the merge
+	 */
+	public MergeConfig setStreaming(boolean streaming) {
+		this.streaming = streaming;
+		return this;
+	}
+
+	/**
+	 * see {@link PathwayReader#setFastIngest(boolean)}
+	 */
+	public MergeConfig setFastIngest(boolean fastIngest) {
+		this.fastIngest = fastIngest;
+		return this;
+	}
+
+	/**
+	 * resolves all mappings in bulk before the merge starts
+	 */
+	public MergeConfig setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+		return this;
+	}
+
+	/**
+	 * reuses the contributions of unchanged pathways from this file
+	 * and updates it after the merge, jobs that run at the same time
+	 * must not share a snapshot file
+	 */
+	public MergeConfig setSnapshotFile(File snapshotFile) {
+		this.snapshotFile = snapshotFile;
+		return this;
+	}
+
+	/**
+	 * prints a progress line to System.out every interval seconds, 0 for none
+	 */
+	public MergeConfig setProgressInterval(int progressInterval) {
+		this.progressInterval = progressInterval;
+		return this;
+	}
+
+	/**
+	 * merges only the given part of the pathways when the source
+	 * is split into shards of consecutive pathways, see
+	 * {@link MergeEngine#mergeShard}
+	 * @param shard number of the shard, from 0 to shards - 1
+	 */
+	public MergeConfig setShard(int shard, int shards) {
+		if(shards < 1 || shard < 0 || shard >= shards) {
+			throw new IllegalArgumentException("Invalid shard " + shard + " of " + shards);
+		}
+		this.shard = shard;
+		this.shards = shards;
+		return this;
+	}
+
+	public boolean isAssociations() { return associations; }
+	public File getGeneDatabase() { return geneDatabase; }
+	public File getMetaboliteDatabase() { return metaboliteDatabase; }
+	public int getParserThreads() { return parserThreads; }
+	public int getMergeThreads() { return mergeThreads; }
+	public boolean isStreaming() { return streaming; }
+	public boolean isFastIngest() { return fastIngest; }
+	public boolean isPrefetch() { return prefetch; }
+	public File getSnapshotFile() { return snapshotFile; }
+	public int getProgressInterval() { return progressInterval; }
+	public int getShard() { return shard; }
+	public int getShards() { return shards; }
+}
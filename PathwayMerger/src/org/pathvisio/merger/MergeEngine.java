@@ -0,0 +1,474 @@
+package org.pathvisio.merger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.merger.PathwayContent.Kind;
+import org.pathvisio.merger.RunMetrics.Phase;
+import org.pathvisio.merger.graph.Graph;
+import org.pathvisio.merger.mapping.CachingIDMapper;
+import org.pathvisio.merger.mapping.MapperPool;
+import org.pathvisio.merger.mapping.MappingIndex;
+import org.pathvisio.merger.mapping.MappingTable;
+
+/**
+ * Merges the pathways of a {@link PathwaySource} into a network.
+ * The source is closed when its pathways are merged.
+ * All state of a merge is kept in the job of one call, so an
+ * engine can run any number of merges at the same time. The
+ * mapping databases come from a {@link MapperPool} that is shared
+ * by all jobs, only the first job that uses a database connects
+ * to it.
+ *
+ * Merges that do not fit into one JVM can be split into shards of
+ * consecutive pathways with {@link MergeConfig#setShard(int, int)}.
+ * Every shard is merged into a file by {@link #mergeShard}, possibly
+ * in another process or on another machine, and the files are
+ * combined by {@link #reduce}.
+ *
+ * @author mkutmon
+ *
+ */
+public class MergeEngine {
+
+	private MapperPool mappers;
+
+	public MergeEngine(MapperPool mappers) {
+		this.mappers = mappers;
+	}
+
+	public Graph merge(MergeConfig config, PathwaySource source) throws IDMapperException, ConverterException, IOException {
+		return merge(config, source, null, new RunMetrics());
+	}
+
+	/**
+	 * @param log receives the same log as a run of PathwayMerger, may be null
+	 * @param metrics records the phases of this job
+	 */
+	public Graph merge(MergeConfig config, PathwaySource source, Writer log, RunMetrics metrics) throws IDMapperException, ConverterException, IOException {
+		return new Job(config, source, log == null ? new NullWriter() : log, metrics, null).merge();
+	}
+
+	/**
+	 * merges with a snapshot that is kept in memory instead of the
+	 * snapshot file of the config; the snapshot is updated with the
+	 * contributions of this merge
+	 */
+	Graph merge(MergeConfig config, PathwaySource source, Writer log, RunMetrics metrics, Snapshot memory) throws IDMapperException, ConverterException, IOException {
+		return new Job(config, source, log == null ? new NullWriter() : log, metrics, memory).merge();
+	}
+
+	/**
+	 * merges the shard of the source that is set in the config and
+	 * writes its partial graph to the file. Every shard has to see
+	 * the same pathways in the same order, the shard only decides
+	 * which of them are merged.
+	 */
+	public void mergeShard(MergeConfig config, PathwaySource source, File file, Writer log, RunMetrics metrics) throws IDMapperException, ConverterException, IOException {
+		new Job(config, source, log == null ? new NullWriter() : log, metrics, null).mergeShard(file);
+	}
+
+	/**
+	 * combines the shard files of one merge into the network, the
+	 * result is the same as merging all pathways in one job. The
+	 * files can be given in any order, only one partial graph is
+	 * read at a time.
+	 * @param log may be null
+	 */
+	public static Graph reduce(List<File> files, Writer log, RunMetrics metrics) throws IOException {
+		if(log == null) {
+			log = new NullWriter();
+		}
+		List<ShardFile> headers = new ArrayList<ShardFile>();
+		final Map<ShardFile, File> sources = new HashMap<ShardFile, File>();
+		for(File file : files) {
+			ShardFile header = ShardFile.read(file, false);
+			headers.add(header);
+			sources.put(header, file);
+		}
+		Collections.sort(headers, new Comparator<ShardFile>() {
+			public int compare(ShardFile a, ShardFile b) {
+				// empty shards come before the shard that starts at the same pathway
+				if(a.from != b.from) {
+					return a.from < b.from ? -1 : 1;
+				}
+				return a.to < b.to ? -1 : a.to > b.to ? 1 : 0;
+			}
+		});
+		int next = 0;
+		for(ShardFile header : headers) {
+			if(!header.settings.equals(headers.get(0).settings)) {
+				throw new IOException("Shard " + sources.get(header).getAbsolutePath() + " was merged with other settings than " +
+						sources.get(headers.get(0)).getAbsolutePath());
+			}
+			if(header.from > next) {
+				throw new IOException("No shard for pathways " + next + " to " + (header.from - 1));
+			}
+			if(header.from < next) {
+				throw new IOException("Shard " + sources.get(header).getAbsolutePath() + " overlaps with the shard before");
+			}
+			next = header.to;
+		}
+		int total = headers.isEmpty() ? 0 : headers.get(0).total;
+		if(next < total) {
+			throw new IOException("No shard for pathways " + next + " to " + (total - 1));
+		}
+
+		log.write("Combine " + headers.size() + " shards with " + total + " pathways");
+		PartialGraph graph = new PartialGraph();
+		for(ShardFile header : headers) {
+			File file = sources.get(header);
+			long start = System.nanoTime();
+			PartialGraph part = ShardFile.read(file, true).graph;
+			graph.merge(part);
+			metrics.record(Phase.MERGE, start, part.getNodeCount() + part.getEdgeCount());
+			log.write("\n> Add shard " + file.getAbsolutePath() + " with " + (header.to - header.from) + " pathways from " + header.from);
+		}
+		Graph result = ParallelMerge.toGraph(graph, metrics);
+		metrics.put("network", "reduced");
+		metrics.put("shards", headers.size());
+		metrics.put("pathways", total);
+		metrics.put("nodes", result.getNodes().size());
+		metrics.put("edges", result.getEdges().size());
+		log.write("\n\nConversion finished with " + result.getNodes().size() + " nodes and " + result.getEdges().size() + " edges.");
+		return result;
+	}
+
+	/**
+	 * the ids a data node with this xref gets in the network of the
+	 * config, as gene and as metabolite, mapped the same way as in
+	 * a merge; the xref id itself if it does not map
+	 */
+	public Set<String> getNodeIds(MergeConfig config, Xref xref) throws IDMapperException {
+		IDMapper genes = mappers.get(config.getGeneDatabase());
+		IDMapper metabolites = mappers.get(config.getMetaboliteDatabase());
+		ContributionBuilder builder = new ContributionBuilder(genes, metabolites, (AttributeMapper) genes);
+		Set<String> ids = new LinkedHashSet<String>();
+		for(Kind kind : new Kind[] { Kind.GENE, Kind.METABOLITE }) {
+			Xref unified = xref.getDataSource() == null ? null : builder.unify(xref, kind);
+			ids.add(unified == null ? xref.getId() : unified.getId());
+		}
+		return ids;
+	}
+
+	private class Job {
+		private MergeConfig config;
+		private PathwaySource source;
+		private Writer log;
+		private RunMetrics metrics;
+		private Snapshot memory;
+		private boolean associations;
+		private IDMapper geneMapper;
+		private IDMapper metMapper;
+		// pathways of the shard
+		private int from;
+		private int to;
+
+		Job(MergeConfig config, PathwaySource source, Writer log, RunMetrics metrics, Snapshot memory) {
+			this.config = config;
+			this.source = source;
+			this.log = log;
+			this.metrics = metrics;
+			this.memory = memory;
+			associations = config.isAssociations();
+		}
+
+		Graph merge() throws IDMapperException, ConverterException, IOException {
+			PartialGraph partial;
+			try {
+				partial = mergePartial();
+			} finally {
+				source.close();
+			}
+			Graph graph = ParallelMerge.toGraph(partial, metrics);
+			metrics.put("nodes", graph.getNodes().size());
+			metrics.put("edges", graph.getEdges().size());
+			log.write("\n\nConversion finished with " + graph.getNodes().size() + " nodes and " + graph.getEdges().size() + " edges.");
+			logMapperStatistics("genes", geneMapper);
+			logMapperStatistics("metabolites", metMapper);
+			return graph;
+		}
+
+		void mergeShard(File file) throws IDMapperException, ConverterException, IOException {
+			PartialGraph graph;
+			try {
+				graph = mergePartial();
+			} finally {
+				source.close();
+			}
+			ShardFile shard = new ShardFile(getShardSettings(), from, to, source.size());
+			shard.graph = graph;
+			shard.write(file);
+			metrics.put("shard", config.getShard() + "/" + config.getShards());
+			metrics.put("nodes", graph.getNodeCount());
+			metrics.put("edges", graph.getEdgeCount());
+			log.write("\n\nShard " + config.getShard() + " of " + config.getShards() + " finished with " + graph.getNodeCount() + " nodes and " +
+					graph.getEdgeCount() + " edges, written to " + file.getAbsolutePath());
+			logMapperStatistics("genes", geneMapper);
+			logMapperStatistics("metabolites", metMapper);
+		}
+
+		/**
+		 * turns every pathway of the shard into its contribution and
+		 * adds them to the network in source order, on merge threads.
+		 * With a snapshot file only pathways that were added or changed
+		 * since the last run are parsed, the contributions of all
+		 * others are reused.
+		 */
+		private PartialGraph mergePartial() throws IDMapperException, ConverterException, IOException {
+			List<PathwaySource.Input> all = source.getInputs();
+			from = (int) ((long) all.size() * config.getShard() / config.getShards());
+			to = (int) ((long) all.size() * (config.getShard() + 1) / config.getShards());
+			log.write((associations ? "Create association network" : "Create merged network") + " for pathways in " + source);
+			if(config.getShards() > 1) {
+				log.write("\nShard " + config.getShard() + " of " + config.getShards() + ": " + (to - from) + " of " + all.size() + " pathways from " + from);
+			}
+			geneMapper = mappers.get(config.getGeneDatabase());
+			metMapper = mappers.get(config.getMetaboliteDatabase());
+			if(geneMapper instanceof MappingTable) {
+				((MappingTable) geneMapper).load(DataSource.getExistingBySystemCode(Kind.GENE.systemCode));
+				((MappingTable) geneMapper).loadSymbols();
+			}
+			if(metMapper instanceof MappingTable && !associations) {
+				((MappingTable) metMapper).load(DataSource.getExistingBySystemCode(Kind.METABOLITE.systemCode));
+			}
+			if(geneMapper instanceof CachingIDMapper) {
+				metrics.addCache("genes", (CachingIDMapper) geneMapper);
+			}
+			if(metMapper instanceof CachingIDMapper) {
+				metrics.addCache("metabolites", (CachingIDMapper) metMapper);
+			}
+
+			List<PathwaySource.Input> inputs = all.subList(from, to);
+			Contribution [] contributions = new Contribution[inputs.size()];
+			String [] checksums = new String[inputs.size()];
+			Snapshot snapshot = null;
+			List<PathwaySource.Input> changed = inputs;
+			File snapshotFile = config.getSnapshotFile();
+			if(snapshotFile != null || memory != null) {
+				String settings = getSettings();
+				Snapshot previous = memory != null ? memory.reuse(settings) : Snapshot.read(snapshotFile, settings);
+				String where = memory != null ? "in memory" : snapshotFile.getAbsolutePath();
+				snapshot = new Snapshot(settings);
+				changed = new ArrayList<PathwaySource.Input>();
+				Set<String> names = new HashSet<String>();
+				for(int i = 0; i < inputs.size(); i++) {
+					PathwaySource.Input input = inputs.get(i);
+					names.add(input.name);
+					checksums[i] = input.checksum();
+					if(previous != null && checksums[i] != null) {
+						contributions[i] = previous.get(input.name, checksums[i]);
+					}
+					if(contributions[i] == null) {
+						changed.add(input);
+					}
+				}
+				if(previous != null) {
+					int removed = 0;
+					for(String name : previous.getFiles()) {
+						if(!names.contains(name)) removed++;
+					}
+					log.write("\nSnapshot " + where + ": " + (inputs.size() - changed.size()) + " unchanged, " +
+							changed.size() + " added or changed and " + removed + " removed pathways.");
+				} else {
+					log.write("\nNo usable snapshot " + (memory != null ? "" : "in ") + where + ", all pathways are merged.");
+				}
+			}
+
+			metrics.put("network", associations ? "associations" : "merged");
+			metrics.put("pathwayDir", source.getDescription());
+			metrics.put("parserThreads", config.getParserThreads());
+			metrics.put("mergeThreads", config.getMergeThreads());
+			metrics.put("pathways", inputs.size());
+			metrics.put("parsed", changed.size());
+			metrics.put("reused", inputs.size() - changed.size());
+			metrics.setTotal(inputs.size());
+			if(config.getProgressInterval() > 0) {
+				metrics.startProgress(config.getProgressInterval(), System.out);
+			}
+
+			ContributionBuilder builder = new ContributionBuilder(geneMapper, metMapper, (AttributeMapper) geneMapper);
+			builder.setMetrics(metrics);
+			ParallelMerge merge = new ParallelMerge(builder, associations, config.getMergeThreads(), from);
+			PathwayReader reader = null;
+			PartialGraph graph;
+			try {
+				reader = openPathways(changed);
+				for(int i = 0; i < inputs.size(); i++) {
+					if(contributions[i] == null) {
+						merge.add(reader.nextContent());
+					} else {
+						merge.add(contributions[i]);
+					}
+				}
+
+				int i = 0;
+				for(ParallelMerge.Chunk chunk : merge.finish()) {
+					for(int j = 0; j < chunk.contributions.length; j++, i++) {
+						Contribution c = chunk.contributions[j];
+						if(chunk.parsed[j]) {
+							logContribution(c);
+						} else {
+							log.write("\n> Reuse pathway " + c.name + "\n");
+						}
+						if(snapshot != null && checksums[i] != null) {
+							snapshot.put(inputs.get(i).name, checksums[i], c);
+						}
+					}
+				}
+				graph = merge.getPartialGraph();
+			} finally {
+				if(reader != null) {
+					reader.close();
+				}
+				merge.close();
+				metrics.stopProgress();
+			}
+			if(snapshot != null && memory != null) {
+				memory.replace(snapshot);
+			} else if(snapshot != null) {
+				snapshot.write(snapshotFile);
+			}
+			return graph;
+		}
+
+		private void logContribution(Contribution c) throws IOException {
+			log.write("\n> Parse pathway " + c.name + " with " + c.elements + " pathway elements.\n");
+			log.write("\tGene count: " + c.genes + "\n");
+			if(!associations) {
+				log.write("\tMetabolite count: " + c.metabolites + "\n");
+				log.write("\tPathway count: " + c.pathways + "\n");
+				log.write("\tGroup count: " + c.groups + "\n");
+				log.write("\tEdge count: " + c.lines + "\n");
+			}
+			log.write("\n\n");
+		}
+
+		private void logMapperStatistics(String name, IDMapper mapper) throws IOException {
+			if(mapper instanceof CachingIDMapper) {
+				log.write("\nMapping cache " + name + ": " + ((CachingIDMapper) mapper).getStatistics());
+			} else if(mapper instanceof MappingTable) {
+				log.write("\nMapping table " + name + ": " + ((MappingTable) mapper).getStatistics());
+			} else if(mapper instanceof MappingIndex) {
+				log.write("\nMapping index " + name + ": " + ((MappingIndex) mapper).getStatistics());
+			}
+		}
+
+		/**
+		 * the settings contributions depend on, a snapshot made with
+		 * other settings is not reused
+		 */
+		private String getSettings() {
+			File genes = config.getGeneDatabase();
+			File metabolites = config.getMetaboliteDatabase();
+			return "contributions=" + Snapshot.CONTRIBUTIONS + ";associations=" + associations +
+					";genes=" + genes.getAbsolutePath() + ":" + genes.length() + ":" + genes.lastModified() +
+					";metabolites=" + metabolites.getAbsolutePath() + ":" + metabolites.length() + ":" + metabolites.lastModified();
+		}
+
+		/**
+		 * the settings all shards of a merge have to share; the
+		 * databases are compared by name and size, shards can run
+		 * on machines that keep them in other directories
+		 */
+		private String getShardSettings() {
+			File genes = config.getGeneDatabase();
+			File metabolites = config.getMetaboliteDatabase();
+			return "associations=" + associations + ";genes=" + genes.getName() + ":" + genes.length() +
+					";metabolites=" + metabolites.getName() + ":" + metabolites.length() + ";source=" + source.size();
+		}
+
+		/**
+		 * in streaming mode only a few parsed pathways are kept ahead
+		 * of the merge, otherwise all pathways are parsed as fast as
+		 * the workers allow
+		 */
+		private PathwayReader openPathways(List<PathwaySource.Input> inputs) throws ConverterException, IDMapperException, IOException {
+			int threads = config.getParserThreads();
+			int window = config.isStreaming() ? 2 * threads : PathwayReader.UNBOUNDED;
+			PathwayReader reader = new PathwayReader(inputs, threads, window);
+			reader.setMetrics(metrics);
+			reader.setFastIngest(config.isFastIngest());
+			log.write("Parsing pathways from " + source + "\n... containing " + inputs.size() + " pathways.");
+			// preloaded tables and indexes already hold all mappings
+			if(config.isPrefetch() && geneMapper instanceof CachingIDMapper && metMapper instanceof CachingIDMapper) {
+				reader = prefetchMappings(reader);
+			}
+			reader.open();
+			return reader;
+		}
+
+		/**
+		 * collects all gene, protein and metabolite xrefs that need to be
+		 * mapped and resolves them in bulk before the merge starts. Parsed
+		 * pathways are replayed afterwards, in streaming mode they are
+		 * parsed a second time instead.
+		 */
+		private PathwayReader prefetchMappings(PathwayReader reader) throws ConverterException, IDMapperException, IOException {
+			Set<Xref> genes = new HashSet<Xref>();
+			Set<Xref> metabolites = new HashSet<Xref>();
+			List<PathwayContent> parsed = config.isStreaming() ? null : new ArrayList<PathwayContent>();
+			reader.open();
+			try {
+				PathwayContent content;
+				while((content = reader.nextContent()) != null) {
+					for(int i = 0; i < content.dataNodes.size(); i++) {
+						Kind kind = content.kinds.get(i);
+						if(kind == Kind.GENE) {
+							addMappable(genes, content.dataNodes.get(i).xref, kind.systemCode);
+						} else if(kind == Kind.METABOLITE && !associations) {
+							addMappable(metabolites, content.dataNodes.get(i).xref, kind.systemCode);
+						}
+					}
+					if(parsed != null) {
+						parsed.add(content);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+
+			CachingIDMapper geneCache = (CachingIDMapper) geneMapper;
+			CachingIDMapper metCache = (CachingIDMapper) metMapper;
+			int geneQueries = geneCache.getPrefetchQueries();
+			int metQueries = metCache.getPrefetchQueries();
+			long start = System.nanoTime();
+			geneCache.prefetch(genes, DataSource.getExistingBySystemCode("En"));
+			metCache.prefetch(metabolites, DataSource.getExistingBySystemCode("Ch"));
+			metrics.record(Phase.MAPPING, start, genes.size() + metabolites.size());
+			log.write("\nPrefetched mappings for " + genes.size() + " genes in " + (geneCache.getPrefetchQueries() - geneQueries) + " queries and " +
+					metabolites.size() + " metabolites in " + (metCache.getPrefetchQueries() - metQueries) + " queries.");
+
+			return parsed == null ? reader : PathwayReader.replay(parsed);
+		}
+
+		private void addMappable(Set<Xref> xrefs, Xref xref, String systemCode) {
+			String syscode = ContributionBuilder.getSystemCode(xref);
+			if(syscode != null && !syscode.equals(systemCode)) {
+				xrefs.add(xref);
+			}
+		}
+	}
+
+	private static class NullWriter extends Writer {
+		public void write(char [] cbuf, int off, int len) { }
+		public void flush() { }
+		public void close() { }
+	}
+}
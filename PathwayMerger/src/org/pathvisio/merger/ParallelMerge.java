@@ -0,0 +1,254 @@
+package org.pathvisio.merger;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.bridgedb.IDMapperException;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.merger.RunMetrics.Phase;
+import org.pathvisio.merger.graph.Graph;
+
+/**
+ * Merges pathways on a pool of worker threads. Consecutive pathways
+ * are grouped in chunks, each chunk is mapped and merged into a
+ * {@link PartialGraph} by one worker, and the partial graphs are
+ * combined pairwise until one is left. Because partial graphs of
+ * neighbouring chunks are always combined in order, the result is
+ * the same as merging all pathways one by one.
+ *
+ * With one thread everything runs on the calling thread.
+ *
+ * @author mkutmon
+ *
+ */
+class ParallelMerge {
+
+	static final int CHUNK_SIZE = 16;
+
+	/**
+	 * pathways of one chunk, with their contributions once the
+	 * chunk has been merged
+	 */
+	static class Chunk implements Callable<Chunk> {
+		final int first;
+		private List<Object> items = new ArrayList<Object>(CHUNK_SIZE);
+		private ContributionBuilder builder;
+		private boolean associations;
+		Contribution [] contributions;
+		boolean [] parsed;
+		PartialGraph graph;
+
+		Chunk(int first, ContributionBuilder builder, boolean associations) {
+			this.first = first;
+			this.builder = builder;
+			this.associations = associations;
+		}
+
+		public Chunk call() throws IDMapperException {
+			contributions = new Contribution[items.size()];
+			parsed = new boolean[items.size()];
+			graph = new PartialGraph();
+			RunMetrics metrics = builder.getMetrics();
+			for(int i = 0; i < items.size(); i++) {
+				Object item = items.get(i);
+				if(item instanceof Pathway || item instanceof PathwayContent) {
+					PathwayContent content = item instanceof Pathway ? new PathwayContent((Pathway) item) : (PathwayContent) item;
+					contributions[i] = associations ? builder.createAssociations(content) : builder.createNetwork(content);
+					parsed[i] = true;
+				} else {
+					contributions[i] = (Contribution) item;
+				}
+				long start = System.nanoTime();
+				graph.add(contributions[i], first + i);
+				metrics.record(Phase.MERGE, start, contributions[i].nodes.size() + contributions[i].edges.size());
+				metrics.pathwayDone();
+			}
+			// parsed pathways are not needed anymore
+			items = null;
+			return this;
+		}
+	}
+
+	private ContributionBuilder builder;
+	private boolean associations;
+	private int threads;
+	private int window;
+	private ExecutorService executor;
+	private Chunk current;
+	private int count;
+	private LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+	private List<Chunk> chunks = new ArrayList<Chunk>();
+
+	ParallelMerge(ContributionBuilder builder, boolean associations, int threads) {
+		this(builder, associations, threads, 0);
+	}
+
+	/**
+	 * @param first index of the first pathway that is added
+	 */
+	ParallelMerge(ContributionBuilder builder, boolean associations, int threads, int first) {
+		this.builder = builder;
+		this.count = first;
+		this.associations = associations;
+		this.threads = Math.max(1, threads);
+		this.window = 2 * this.threads;
+		if(this.threads > 1) {
+			executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "merge-worker");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * adds a parsed pathway that still has to be mapped
+	 */
+	void add(Pathway pathway) throws IDMapperException {
+		addItem(pathway);
+	}
+
+	/**
+	 * adds the elements of a pathway that still has to be mapped
+	 */
+	void add(PathwayContent content) throws IDMapperException {
+		addItem(content);
+	}
+
+	/**
+	 * adds a pathway of which the contribution is already known
+	 */
+	void add(Contribution contribution) throws IDMapperException {
+		addItem(contribution);
+	}
+
+	private void addItem(Object item) throws IDMapperException {
+		if(current == null) {
+			current = new Chunk(count, builder, associations);
+		}
+		current.items.add(item);
+		count++;
+		if(current.items.size() == CHUNK_SIZE) {
+			submit();
+		}
+	}
+
+	private void submit() throws IDMapperException {
+		if(executor == null) {
+			chunks.add(current.call());
+		} else {
+			// bounds the number of parsed pathways waiting for a worker
+			while(pending.size() >= window) {
+				chunks.add(get(pending.removeFirst()));
+			}
+			pending.add(executor.submit(current));
+		}
+		current = null;
+	}
+
+	/**
+	 * waits for all chunks and returns them in pathway order
+	 */
+	List<Chunk> finish() throws IDMapperException {
+		if(current != null) {
+			submit();
+		}
+		while(!pending.isEmpty()) {
+			chunks.add(get(pending.removeFirst()));
+		}
+		return chunks;
+	}
+
+	/**
+	 * combines the partial graphs of all chunks into the network
+	 */
+	Graph getGraph() throws IDMapperException {
+		return toGraph(getPartialGraph(), builder.getMetrics());
+	}
+
+	/**
+	 * combines the partial graphs of all chunks
+	 */
+	PartialGraph getPartialGraph() throws IDMapperException {
+		List<PartialGraph> parts = new ArrayList<PartialGraph>();
+		for(Chunk chunk : finish()) {
+			parts.add(chunk.graph);
+		}
+		final RunMetrics metrics = builder.getMetrics();
+		if(executor == null) {
+			PartialGraph graph = new PartialGraph();
+			for(PartialGraph part : parts) {
+				long start = System.nanoTime();
+				graph.merge(part);
+				metrics.record(Phase.MERGE, start, 0);
+			}
+			return graph;
+		}
+		if(parts.isEmpty()) {
+			return new PartialGraph();
+		}
+		while(parts.size() > 1) {
+			List<Future<PartialGraph>> round = new ArrayList<Future<PartialGraph>>();
+			for(int i = 0; i + 1 < parts.size(); i += 2) {
+				final PartialGraph left = parts.get(i);
+				final PartialGraph right = parts.get(i + 1);
+				round.add(executor.submit(new Callable<PartialGraph>() {
+					public PartialGraph call() {
+						long start = System.nanoTime();
+						left.merge(right);
+						metrics.record(Phase.MERGE, start, 0);
+						return left;
+					}
+				}));
+			}
+			List<PartialGraph> next = new ArrayList<PartialGraph>();
+			for(Future<PartialGraph> future : round) {
+				next.add(get(future));
+			}
+			if(parts.size() % 2 == 1) {
+				next.add(parts.get(parts.size() - 1));
+			}
+			parts = next;
+		}
+		return parts.get(0);
+	}
+
+	static Graph toGraph(PartialGraph partial, RunMetrics metrics) {
+		long start = System.nanoTime();
+		Graph graph = partial.toGraph();
+		metrics.record(Phase.MERGE, start, graph.getNodes().size() + graph.getEdges().size());
+		return graph;
+	}
+
+	void close() {
+		if(executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private static <T> T get(Future<T> future) throws IDMapperException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IDMapperException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IDMapperException) {
+				throw (IDMapperException) e.getCause();
+			} else if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IDMapperException(e.getCause());
+		}
+	}
+}
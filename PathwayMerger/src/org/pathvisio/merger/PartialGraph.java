@@ -0,0 +1,344 @@
+package org.pathvisio.merger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pathvisio.merger.Contribution.EdgeEntry;
+import org.pathvisio.merger.Contribution.NodeEntry;
+import org.pathvisio.merger.graph.Edge;
+import org.pathvisio.merger.graph.Graph;
+import org.pathvisio.merger.graph.Node;
+import org.pathvisio.merger.graph.PathwaySet;
+
+/**
+ * The merged network of a consecutive range of pathways. Nodes are
+ * keyed by id and keep the attributes of the first pathway that has
+ * them, edges keep the type they were created with and the types
+ * that later pathways append.
+ *
+ * Two partial graphs of neighbouring ranges are combined with
+ * {@link #merge(PartialGraph)}, which gives the same result as
+ * adding all contributions of both ranges to one partial graph,
+ * including the order of nodes and edges. Partial graphs can
+ * therefore be built and combined on different threads, or in
+ * different processes with {@link #write(DataOutputStream)} and
+ * {@link #read(DataInputStream)}.
+ *
+ * @author mkutmon
+ *
+ */
+class PartialGraph {
+
+	private static class PartialNode {
+		final String id;
+		final NodeEntry entry;
+		final PathwaySet pathways = new PathwaySet();
+
+		PartialNode(String id, NodeEntry entry) {
+			this.id = id;
+			this.entry = entry;
+		}
+	}
+
+	private static class PartialEdge {
+		final String id;
+		PartialNode source;
+		PartialNode target;
+		final String type;
+		// the edge was created by an entry that appends its type
+		final boolean append;
+		List<String> appended;
+		final PathwaySet pathways = new PathwaySet();
+
+		PartialEdge(EdgeEntry entry, PartialNode source, PartialNode target) {
+			this.id = entry.id;
+			this.source = source;
+			this.target = target;
+			this.type = entry.type;
+			this.append = entry.append;
+		}
+
+		void append(String type) {
+			if(appended == null) appended = new ArrayList<String>(1);
+			appended.add(type);
+		}
+	}
+
+	/**
+	 * key of an edge without explicit id
+	 */
+	private static class EdgeKey {
+		final String source;
+		final String target;
+
+		EdgeKey(String source, String target) {
+			this.source = source;
+			this.target = target;
+		}
+
+		public int hashCode() {
+			return 31 * source.hashCode() + target.hashCode();
+		}
+
+		public boolean equals(Object o) {
+			if(!(o instanceof EdgeKey)) return false;
+			EdgeKey key = (EdgeKey) o;
+			return source.equals(key.source) && target.equals(key.target);
+		}
+	}
+
+	private final Map<String, PartialNode> nodes = new LinkedHashMap<String, PartialNode>();
+	private final Map<Object, PartialEdge> edges = new LinkedHashMap<Object, PartialEdge>();
+	private final List<String> names = new ArrayList<String>();
+	private int first = -1;
+
+	/**
+	 * adds the contribution of the pathway with the given index,
+	 * which has to follow the last pathway of this graph
+	 */
+	void add(Contribution c, int index) {
+		if(first < 0) {
+			first = index;
+		} else if(index != first + names.size()) {
+			throw new IllegalArgumentException("Pathway " + index + " does not follow pathway " + (first + names.size() - 1));
+		}
+		names.add(c.name);
+		PartialNode [] local = new PartialNode[c.nodes.size()];
+		for(int i = 0; i < local.length; i++) {
+			NodeEntry entry = c.nodes.get(i);
+			String id = entry.local ? index + "." + entry.id : entry.id;
+			PartialNode node = nodes.get(id);
+			if(node == null) {
+				node = new PartialNode(id, entry);
+				nodes.put(id, node);
+			}
+			if(entry.member) {
+				node.pathways.add(index);
+			}
+			local[i] = node;
+		}
+		for(EdgeEntry entry : c.edges) {
+			PartialNode source = local[entry.source];
+			PartialNode target = local[entry.target];
+			Object key = entry.id != null ? entry.id : new EdgeKey(source.id, target.id);
+			PartialEdge edge = edges.get(key);
+			if(edge == null) {
+				edge = new PartialEdge(entry, source, target);
+				edges.put(key, edge);
+			} else if(entry.append) {
+				edge.append(entry.type);
+			}
+			if(entry.member) {
+				edge.pathways.add(index);
+			}
+		}
+	}
+
+	/**
+	 * adds the pathways of the other graph, which has to start with
+	 * the pathway that follows the last one of this graph. The other
+	 * graph cannot be used afterwards.
+	 */
+	void merge(PartialGraph other) {
+		if(other.first < 0) {
+			return;
+		}
+		if(first < 0) {
+			first = other.first;
+		} else if(other.first != first + names.size()) {
+			throw new IllegalArgumentException("Pathway " + other.first + " does not follow pathway " + (first + names.size() - 1));
+		}
+		names.addAll(other.names);
+		for(PartialNode node : other.nodes.values()) {
+			PartialNode existing = nodes.get(node.id);
+			if(existing == null) {
+				nodes.put(node.id, node);
+			} else {
+				existing.pathways.addAll(node.pathways);
+			}
+		}
+		for(Map.Entry<Object, PartialEdge> e : other.edges.entrySet()) {
+			PartialEdge edge = e.getValue();
+			PartialEdge existing = edges.get(e.getKey());
+			if(existing == null) {
+				edge.source = nodes.get(edge.source.id);
+				edge.target = nodes.get(edge.target.id);
+				edges.put(e.getKey(), edge);
+			} else {
+				// the first entry of the other graph only changes an
+				// existing edge if it appends its type
+				if(edge.append) existing.append(edge.type);
+				if(edge.appended != null) {
+					for(String type : edge.appended) existing.append(type);
+				}
+				existing.pathways.addAll(edge.pathways);
+			}
+		}
+	}
+
+	int getNodeCount() {
+		return nodes.size();
+	}
+
+	int getEdgeCount() {
+		return edges.size();
+	}
+
+	/**
+	 * writes the graph in the order of its nodes and edges, edges
+	 * refer to their nodes by position
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(first);
+		out.writeInt(names.size());
+		for(String name : names) {
+			writeString(out, name);
+		}
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		out.writeInt(nodes.size());
+		for(PartialNode node : nodes.values()) {
+			positions.put(node.id, positions.size());
+			NodeEntry entry = node.entry;
+			writeString(out, node.id);
+			writeString(out, entry.geneId);
+			writeString(out, entry.unifiedId);
+			writeString(out, entry.label);
+			writeString(out, entry.type);
+			out.writeBoolean(entry.count);
+			writePathways(out, node.pathways);
+		}
+		out.writeInt(edges.size());
+		for(PartialEdge edge : edges.values()) {
+			writeString(out, edge.id);
+			out.writeInt(positions.get(edge.source.id));
+			out.writeInt(positions.get(edge.target.id));
+			writeString(out, edge.type);
+			out.writeBoolean(edge.append);
+			out.writeInt(edge.appended == null ? 0 : edge.appended.size());
+			if(edge.appended != null) {
+				for(String type : edge.appended) {
+					writeString(out, type);
+				}
+			}
+			writePathways(out, edge.pathways);
+		}
+	}
+
+	/**
+	 * reads a graph written by {@link #write(DataOutputStream)}
+	 */
+	static PartialGraph read(DataInputStream in) throws IOException {
+		PartialGraph graph = new PartialGraph();
+		graph.first = in.readInt();
+		int n = in.readInt();
+		for(int i = 0; i < n; i++) {
+			graph.names.add(readString(in));
+		}
+		PartialNode [] positions = new PartialNode[in.readInt()];
+		for(int i = 0; i < positions.length; i++) {
+			String id = readString(in);
+			NodeEntry entry = new NodeEntry();
+			entry.id = id;
+			entry.geneId = readString(in);
+			entry.unifiedId = readString(in);
+			entry.label = readString(in);
+			entry.type = readString(in);
+			entry.count = in.readBoolean();
+			PartialNode node = new PartialNode(id, entry);
+			readPathways(in, node.pathways);
+			graph.nodes.put(id, node);
+			positions[i] = node;
+		}
+		int m = in.readInt();
+		for(int i = 0; i < m; i++) {
+			EdgeEntry entry = new EdgeEntry();
+			entry.id = readString(in);
+			PartialNode source = positions[in.readInt()];
+			PartialNode target = positions[in.readInt()];
+			entry.type = readString(in);
+			entry.append = in.readBoolean();
+			PartialEdge edge = new PartialEdge(entry, source, target);
+			int appended = in.readInt();
+			for(int j = 0; j < appended; j++) {
+				edge.append(readString(in));
+			}
+			readPathways(in, edge.pathways);
+			graph.edges.put(entry.id != null ? entry.id : new EdgeKey(source.id, target.id), edge);
+		}
+		return graph;
+	}
+
+	private static void writePathways(DataOutputStream out, PathwaySet pathways) throws IOException {
+		out.writeInt(pathways.size());
+		for(int i = 0; i < pathways.size(); i++) {
+			out.writeInt(pathways.get(i));
+		}
+	}
+
+	private static void readPathways(DataInputStream in, PathwaySet pathways) throws IOException {
+		int n = in.readInt();
+		for(int i = 0; i < n; i++) {
+			pathways.add(in.readInt());
+		}
+	}
+
+	/**
+	 * UTF-8 with a length in front, -1 for null
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if(value == null) {
+			out.writeInt(-1);
+		} else {
+			byte [] bytes = value.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0) {
+			return null;
+		}
+		byte [] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * the merged graph, with the pathway names as graph attributes
+	 */
+	Graph toGraph() {
+		Graph graph = new Graph();
+		for(PartialNode p : nodes.values()) {
+			Node node = graph.addNode(p.id);
+			NodeEntry entry = p.entry;
+			if(entry.geneId != null) node.appendAttribute("GeneId", entry.geneId);
+			if(entry.unifiedId != null) node.appendAttribute("UnifiedId", entry.unifiedId);
+			if(entry.label != null) node.appendAttribute("Label", entry.label);
+			if(entry.type != null) node.appendAttribute("Type", entry.type);
+			node.setCountPathways(entry.count);
+			node.getPathways().addAll(p.pathways);
+		}
+		for(PartialEdge p : edges.values()) {
+			Node source = graph.getNode(p.source.id);
+			Node target = graph.getNode(p.target.id);
+			Edge edge = p.id == null ? graph.addEdge(source, target) : graph.addEdge(p.id, source, target);
+			edge.appendAttribute("Type", p.type);
+			if(p.appended != null) {
+				for(String type : p.appended) edge.appendAttribute("Type", type);
+			}
+			edge.getPathways().addAll(p.pathways);
+		}
+		for(int i = 0; i < names.size(); i++) {
+			graph.appendAttribute((first + i) + " Pathway", names.get(i));
+		}
+		return graph;
+	}
+}
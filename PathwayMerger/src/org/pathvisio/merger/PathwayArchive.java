@@ -0,0 +1,488 @@
+package org.pathvisio.merger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.pathvisio.core.model.ConverterException;
+
+/**
+ * Adds the GPML entries of .zip and .tar.gz archives to a
+ * {@link PathwaySource}, without extracting them to disk. Entries
+ * are added sorted by their path in the archive and are only
+ * decompressed when their pathway is parsed, on the parser threads,
+ * so decompression overlaps with parsing.
+ *
+ * Zip entries are read directly, several at the same time. A
+ * tar.gz archive can only be read from the start, so the parser
+ * thread that needs an entry reads the archive up to it and keeps
+ * the entries it passes for the threads that will ask for them.
+ * At most {@link #KEPT} bytes are kept that way, an entry that did
+ * not fit is read again from the start of the archive when it is
+ * asked for. Archives in path order are read once, archives in
+ * another order can be read several times but never sit in memory.
+ *
+ * Adding a tar archive only lists its entries. The MD5 checksums of
+ * the entries are taken the first time a snapshot asks for one, in
+ * one more pass over the archive; zip entries use the CRC-32 and
+ * size of the zip directory.
+ *
+ * @author mkutmon
+ *
+ */
+class PathwayArchive {
+
+	// bytes of tar entries kept for the threads that will ask for them
+	static final long KEPT = 32L << 20;
+
+	static boolean isArchive(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".zip") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+	}
+
+	/**
+	 * adds the .gpml entries of the archive
+	 * @param prefix put in front of the entry paths to name the pathways
+	 */
+	static void add(PathwaySource source, File archive, String prefix) throws IOException {
+		if(archive.getName().toLowerCase().endsWith(".zip")) {
+			addZip(source, archive, prefix);
+		} else {
+			addTar(source, archive, prefix);
+		}
+	}
+
+	/**
+	 * the zip file stays open until the source is closed
+	 */
+	private static void addZip(PathwaySource source, File archive, String prefix) throws IOException {
+		ZipFile zip = new ZipFile(archive);
+		source.addResource(zip);
+		List<String> paths = new ArrayList<String>();
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while(entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			if(!entry.isDirectory() && entry.getName().endsWith(".gpml")) {
+				paths.add(entry.getName());
+			}
+		}
+		Collections.sort(paths);
+		for(String path : paths) {
+			source.add(new ZipInput(prefix + path, zip, zip.getEntry(path)));
+		}
+	}
+
+	private static void addTar(PathwaySource source, File archive, String prefix) throws IOException {
+		Set<String> entries = new HashSet<String>();
+		TarReader reader = new TarReader(archive);
+		try {
+			String path;
+			while((path = reader.next()) != null) {
+				if(path.endsWith(".gpml")) {
+					entries.add(path);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		TarArchive tar = new TarArchive(archive, entries);
+		source.addResource(tar);
+		List<String> paths = new ArrayList<String>(entries);
+		Collections.sort(paths);
+		for(String path : paths) {
+			source.add(new TarInput(prefix + path, tar, path));
+		}
+	}
+
+	private static MessageDigest digest() throws IOException {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private static class ZipInput extends PathwaySource.Input {
+		private ZipFile zip;
+		private ZipEntry entry;
+
+		ZipInput(String name, ZipFile zip, ZipEntry entry) {
+			super(name);
+			this.zip = zip;
+			this.entry = entry;
+		}
+
+		PathwayContent read(boolean fastIngest) throws ConverterException {
+			byte [] gpml;
+			try {
+				InputStream in = zip.getInputStream(entry);
+				try {
+					gpml = readFully(in, entry.getSize());
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new ConverterException(e);
+			}
+			return PathwaySource.read(gpml, name, fastIngest);
+		}
+
+		String checksum() throws IOException {
+			if(entry.getCrc() < 0) {
+				return null;
+			}
+			return "crc32:" + Long.toHexString(entry.getCrc()) + ":" + entry.getSize();
+		}
+	}
+
+	private static class TarInput extends PathwaySource.Input {
+		private TarArchive tar;
+		private String path;
+
+		TarInput(String name, TarArchive tar, String path) {
+			super(name);
+			this.tar = tar;
+			this.path = path;
+		}
+
+		PathwayContent read(boolean fastIngest) throws ConverterException {
+			try {
+				return PathwaySource.read(tar.get(path), name, fastIngest);
+			} catch (IOException e) {
+				throw new ConverterException(e);
+			}
+		}
+
+		String checksum() throws IOException {
+			return tar.checksum(path);
+		}
+	}
+
+	/**
+	 * hands out the entries of a tar.gz archive in any order while
+	 * reading the archive only once when they are asked for in
+	 * archive order, or when the entries read ahead fit into
+	 * {@link PathwayArchive#KEPT} bytes
+	 */
+	private static class TarArchive implements Closeable {
+		private File file;
+		private Set<String> paths;
+		// entries that were read for another entry and not asked for yet
+		private Map<String, byte []> read = new ConcurrentHashMap<String, byte []>();
+		private AtomicLong kept = new AtomicLong();
+		private Set<String> passed = new HashSet<String>();
+		private TarReader reader;
+		// path -> MD5 of the entry, taken when the first one is asked for
+		private Map<String, String> checksums;
+
+		TarArchive(File file, Set<String> paths) {
+			this.file = file;
+			this.paths = paths;
+		}
+
+		byte [] get(String path) throws IOException {
+			byte [] bytes = take(path);
+			if(bytes != null) {
+				return bytes;
+			}
+			synchronized(this) {
+				bytes = take(path);
+				if(bytes != null) {
+					return bytes;
+				}
+				// an entry is asked for a second time, start over
+				if(reader == null || passed.contains(path)) {
+					if(reader != null) {
+						reader.close();
+					}
+					reader = new TarReader(file);
+					passed.clear();
+				}
+				String next;
+				while((next = reader.next()) != null) {
+					if(!paths.contains(next)) {
+						continue;
+					}
+					passed.add(next);
+					if(next.equals(path)) {
+						return reader.read();
+					}
+					// entries that do not fit are read again when they are asked for
+					if(kept.get() + reader.size() <= KEPT) {
+						bytes = reader.read();
+						kept.addAndGet(bytes.length);
+						read.put(next, bytes);
+					}
+				}
+				reader.close();
+				reader = null;
+				throw new IOException("No entry " + path + " in " + file.getAbsolutePath());
+			}
+		}
+
+		private byte [] take(String path) {
+			byte [] bytes = read.remove(path);
+			if(bytes != null) {
+				kept.addAndGet(-bytes.length);
+			}
+			return bytes;
+		}
+
+		/**
+		 * the checksums of all entries are taken in one pass over
+		 * the archive, only one entry is in memory at a time
+		 */
+		synchronized String checksum(String path) throws IOException {
+			if(checksums == null) {
+				Map<String, String> all = new HashMap<String, String>();
+				MessageDigest digest = digest();
+				TarReader checksumReader = new TarReader(file);
+				try {
+					String next;
+					while((next = checksumReader.next()) != null) {
+						if(paths.contains(next)) {
+							all.put(next, Snapshot.toHex(digest.digest(checksumReader.read())));
+						}
+					}
+				} finally {
+					checksumReader.close();
+				}
+				checksums = all;
+			}
+			return checksums.get(path);
+		}
+
+		public synchronized void close() {
+			if(reader != null) {
+				reader.close();
+				reader = null;
+			}
+			read.clear();
+			kept.set(0);
+			passed.clear();
+		}
+	}
+
+	/**
+	 * reads the regular files of a gzip compressed tar archive,
+	 * with the GNU and POSIX extensions for long paths
+	 */
+	private static class TarReader {
+		private static final int BLOCK = 512;
+
+		private InputStream in;
+		private byte [] header = new byte[BLOCK];
+		private long size;
+		// bytes of the current entry that were not read yet, with padding
+		private long remaining;
+
+		TarReader(File file) throws IOException {
+			in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16), 1 << 16);
+		}
+
+		/**
+		 * moves to the next file and returns its path, or null at the
+		 * end of the archive
+		 */
+		String next() throws IOException {
+			skip(remaining);
+			remaining = 0;
+			String longPath = null;
+			while(true) {
+				if(!readBlock(header)) {
+					return null;
+				}
+				if(isZero(header)) {
+					return null;
+				}
+				char type = (char) header[156];
+				size = parseSize(header, 124, 12);
+				long padded = (size + BLOCK - 1) / BLOCK * BLOCK;
+				if(type == 'L') {
+					// GNU long path of the next entry
+					longPath = trim(new String(readData(), "UTF-8"));
+				} else if(type == 'x') {
+					String path = parsePax(new String(readData(), "UTF-8"));
+					if(path != null) {
+						longPath = path;
+					}
+				} else if(type == '0' || type == '\0' || type == '7') {
+					remaining = padded;
+					if(longPath != null) {
+						return longPath;
+					}
+					String name = string(header, 0, 100);
+					String prefix = "ustar".equals(string(header, 257, 5)) ? string(header, 345, 155) : "";
+					return prefix.length() > 0 ? prefix + "/" + name : name;
+				} else {
+					skip(padded);
+				}
+			}
+		}
+
+		/**
+		 * the size of the current file
+		 */
+		long size() {
+			return size;
+		}
+
+		/**
+		 * the content of the current file
+		 */
+		byte [] read() throws IOException {
+			byte [] bytes = readFully(in, size);
+			skip(remaining - size);
+			remaining = 0;
+			return bytes;
+		}
+
+		private byte [] readData() throws IOException {
+			byte [] bytes = readFully(in, size);
+			skip((size + BLOCK - 1) / BLOCK * BLOCK - size);
+			return bytes;
+		}
+
+		void close() {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing was written
+			}
+		}
+
+		private boolean readBlock(byte [] block) throws IOException {
+			int n = 0;
+			while(n < block.length) {
+				int r = in.read(block, n, block.length - n);
+				if(r < 0) {
+					if(n == 0) {
+						return false;
+					}
+					throw new EOFException("Truncated tar archive");
+				}
+				n += r;
+			}
+			return true;
+		}
+
+		private void skip(long n) throws IOException {
+			while(n > 0) {
+				long skipped = in.skip(n);
+				if(skipped <= 0) {
+					if(in.read() < 0) {
+						throw new EOFException("Truncated tar archive");
+					}
+					skipped = 1;
+				}
+				n -= skipped;
+			}
+		}
+
+		private static boolean isZero(byte [] block) {
+			for(byte b : block) {
+				if(b != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * octal, or big-endian binary if the first bit is set
+		 */
+		private static long parseSize(byte [] block, int offset, int length) {
+			long value = 0;
+			if((block[offset] & 0x80) != 0) {
+				for(int i = offset + 1; i < offset + length; i++) {
+					value = (value << 8) | (block[i] & 0xff);
+				}
+				return value;
+			}
+			boolean digits = false;
+			for(int i = offset; i < offset + length; i++) {
+				byte b = block[i];
+				if(b >= '0' && b <= '7') {
+					value = value * 8 + (b - '0');
+					digits = true;
+				} else if(digits) {
+					// NUL or space after the number
+					break;
+				}
+			}
+			return value;
+		}
+
+		/**
+		 * the path of a POSIX extended header, records are
+		 * "length key=value\n"
+		 */
+		private static String parsePax(String records) {
+			for(String record : records.split("\n")) {
+				int space = record.indexOf(' ');
+				if(space > 0 && record.startsWith("path=", space + 1)) {
+					return record.substring(space + 6);
+				}
+			}
+			return null;
+		}
+
+		private static String string(byte [] block, int offset, int length) throws IOException {
+			int end = offset;
+			while(end < offset + length && block[end] != 0) {
+				end++;
+			}
+			return new String(block, offset, end - offset, "UTF-8");
+		}
+
+		private static String trim(String value) {
+			int end = value.indexOf('\0');
+			return end < 0 ? value : value.substring(0, end);
+		}
+	}
+
+	static byte [] readFully(InputStream in, long size) throws IOException {
+		if(size >= 0) {
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("Entry too large: " + size + " bytes");
+			}
+			byte [] bytes = new byte[(int) size];
+			int n = 0;
+			while(n < bytes.length) {
+				int r = in.read(bytes, n, bytes.length - n);
+				if(r < 0) {
+					throw new EOFException("Unexpected end of entry");
+				}
+				n += r;
+			}
+			return bytes;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte [] buffer = new byte[1 << 16];
+		int n;
+		while((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+}
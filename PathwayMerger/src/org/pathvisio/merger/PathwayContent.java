@@ -0,0 +1,153 @@
+package org.pathvisio.merger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pathvisio.core.model.ObjectType;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+
+/**
+ * The elements of a pathway that take part in the merge, sorted
+ * into typed buckets while they are added in document order.
+ * Data nodes keep their document order so the first occurrence
+ * of a merged node is the same as before.
+ *
+ * The content is either copied from a parsed {@link Pathway} or
+ * filled directly from the GPML file by {@link GpmlExtractor}.
+ *
+ * @author mkutmon
+ *
+ */
+class PathwayContent {
+
+	enum Kind {
+		// all genes and proteins are mapped to Ensembl
+		GENE("En"),
+		// all metabolites are mapped to HMDB
+		METABOLITE("Ch"),
+		PATHWAY("Wp");
+
+		final String systemCode;
+
+		Kind(String systemCode) {
+			this.systemCode = systemCode;
+		}
+	}
+
+	// null if the content was extracted from the file directly
+	final Pathway pathway;
+	final String name;
+	// name of the pathway in its source, the path for pathways in
+	// subdirectories and archives; it identifies the pathway node
+	// of the association network
+	final String file;
+	// number of pathway elements, as in Pathway.getDataObjects()
+	int elements = 0;
+	final List<GpmlElement> dataNodes = new ArrayList<GpmlElement>();
+	final List<Kind> kinds = new ArrayList<Kind>();
+	final List<GpmlElement> groups = new ArrayList<GpmlElement>();
+	final List<GpmlElement> lines = new ArrayList<GpmlElement>();
+	// groupRef -> members of the group in document order
+	final Map<String, List<GpmlElement>> groupMembers = new HashMap<String, List<GpmlElement>>();
+	// graphRef -> lines that start or end there, used to resolve anchors
+	final Map<String, List<GpmlElement>> linesByRef = new HashMap<String, List<GpmlElement>>();
+	// graphId -> first element with that id
+	private final Map<String, GpmlElement> byId = new HashMap<String, GpmlElement>();
+
+	int genes = 0;
+	int metabolites = 0;
+	int pathways = 0;
+
+	PathwayContent(String name, String file) {
+		this(null, name, file);
+	}
+
+	PathwayContent(Pathway pathway) {
+		this(pathway, pathway.getSourceFile().getName());
+	}
+
+	/**
+	 * @param file name of the pathway in its source
+	 */
+	PathwayContent(Pathway pathway, String file) {
+		this(pathway, pathway.getMappInfo().getMapInfoName(), file);
+		for(PathwayElement e : pathway.getDataObjects()) {
+			add(new GpmlElement(e));
+		}
+	}
+
+	private PathwayContent(Pathway pathway, String name, String file) {
+		this.pathway = pathway;
+		this.name = name;
+		this.file = file;
+	}
+
+	void add(GpmlElement e) {
+		elements++;
+		if(e.graphId != null && !byId.containsKey(e.graphId)) {
+			byId.put(e.graphId, e);
+		}
+		ObjectType type = e.objectType;
+		if(type == ObjectType.GROUP) {
+			groups.add(e);
+		} else if(type == ObjectType.LINE) {
+			lines.add(e);
+			indexLine(e);
+		}
+		if(e.groupRef != null) {
+			add(groupMembers, e.groupRef, e);
+		}
+		if(e.xref != null && !e.xref.getId().equals("") && e.xref.getDataSource() != null) {
+			Kind kind = getKind(e.dataNodeType);
+			if(kind != null) {
+				dataNodes.add(e);
+				kinds.add(kind);
+			}
+		}
+	}
+
+	/**
+	 * the first element with the given graph id, like
+	 * Pathway.getElementById
+	 */
+	GpmlElement getElementById(String id) {
+		return id == null ? null : byId.get(id);
+	}
+
+	private Kind getKind(String dataNodeType) {
+		if(dataNodeType.equals("GeneProduct") || dataNodeType.equals("Protein")) {
+			genes++;
+			return Kind.GENE;
+		} else if(dataNodeType.equals("Metabolite")) {
+			metabolites++;
+			return Kind.METABOLITE;
+		} else if(dataNodeType.equals("Pathway")) {
+			pathways++;
+			return Kind.PATHWAY;
+		}
+		return null;
+	}
+
+	private void indexLine(GpmlElement line) {
+		String start = line.startRef;
+		String end = line.endRef;
+		if(start != null && end != null) {
+			add(linesByRef, start, line);
+			if(!end.equals(start)) {
+				add(linesByRef, end, line);
+			}
+		}
+	}
+
+	private static void add(Map<String, List<GpmlElement>> map, String key, GpmlElement e) {
+		List<GpmlElement> list = map.get(key);
+		if(list == null) {
+			list = new ArrayList<GpmlElement>(2);
+			map.put(key, list);
+		}
+		list.add(e);
+	}
+}
@@ -4,457 +4,345 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
 
-import org.bridgedb.AttributeMapper;
-import org.bridgedb.BridgeDb;
 import org.bridgedb.DataSource;
-import org.bridgedb.IDMapper;
-import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
-import org.bridgedb.bio.DataSourceTxt;
-import org.pathvisio.core.model.ConverterException;
-import org.pathvisio.core.model.MGroup;
-import org.pathvisio.core.model.MLine;
-import org.pathvisio.core.model.ObjectType;
-import org.pathvisio.core.model.Pathway;
-import org.pathvisio.core.model.PathwayElement;
-import org.pathvisio.core.model.PathwayElement.MAnchor;
-import org.pathvisio.merger.graph.Edge;
+import org.pathvisio.merger.RunMetrics.Phase;
 import org.pathvisio.merger.graph.Graph;
+import org.pathvisio.merger.graph.GraphWriter;
+import org.pathvisio.merger.graph.GraphWriters;
+import org.pathvisio.merger.graph.NetworkAnalysis;
 import org.pathvisio.merger.graph.Node;
-import org.pathvisio.merger.graph.XGMMLWriter;
+import org.pathvisio.merger.graph.PathwaySimilarity;
+import org.pathvisio.merger.graph.Subnetwork;
+import org.pathvisio.merger.mapping.MapperPool;
 
 /**
+ * Command line front end of the {@link MergeEngine}: reads the
+ * settings from a properties file, merges the pathways of a
+ * directory and writes the network, the log and the run report.
+ * With shard.file set only one shard of the pathways is merged
+ * into that file, with reduce.dir set the ".shard" files of that
+ * directory are combined into the network instead of merging
+ * pathway.dir. With watch=true the process keeps running and
+ * writes the network again whenever the GPML files change. With
+ * subnetwork.seeds set only the neighbourhood of the seeds is
+ * written.
  * 
  * @author mkutmon
  *
  */
 public class PathwayMerger {
 
-	private File directory;
-	private File bridgedbGene;
-	private File bridgedbMetabolites;
-	private AttributeMapper geneAttr;
-	private IDMapper geneMapper;
-	private IDMapper metMapper;
-	private static boolean associations = false;
-	
 	private static String PATHWAY_DIR = "pathway.dir";
 	private static String OUTPUT_FILE = "output.file";
 	private static String GENE_BRIDGEDB = "gene.bridgedb";
 	private static String METABOLITE_BRIDGEDB = "metabolite.bridgedb";
 	private static String LOG_FILE = "log.file";
 	private static String ASSOCIATIONS = "associations";
-	
-	private static BufferedWriter log;
+	private static String PARSER_THREADS = "parser.threads";
+	private static String STREAMING = "streaming";
+	private static String FAST_INGEST = "parser.fast";
+	private static String CACHE_SIZE = "mapping.cache.size";
+	private static String PREFETCH = "mapping.prefetch";
+	private static String PRELOAD = "mapping.preload";
+	private static String OUTPUT_INDENT = "output.indent";
+	private static String OUTPUT_FORMAT = "output.format";
+	private static String SNAPSHOT_FILE = "snapshot.file";
+	private static String MERGE_THREADS = "merge.threads";
+	private static String REPORT_FILE = "report.file";
+	private static String PROGRESS_INTERVAL = "progress.interval";
+	private static String SIMILARITY_FILE = "similarity.file";
+	private static String SIMILARITY_MEASURE = "similarity.measure";
+	private static String SIMILARITY_THRESHOLD = "similarity.threshold";
+	private static String SIMILARITY_MINHASH = "similarity.minhash";
+	private static String ANALYSIS_FILE = "analysis.file";
+	private static String ANALYSIS_ATTRIBUTES = "analysis.attributes";
+	private static String ANALYSIS_HUBS = "analysis.hubs";
+	private static String SHARD_INDEX = "shard.index";
+	private static String SHARD_COUNT = "shard.count";
+	private static String SHARD_FILE = "shard.file";
+	private static String REDUCE_DIR = "reduce.dir";
+	private static String WATCH = "watch";
+	private static String WATCH_DEBOUNCE = "watch.debounce";
+	private static String SUBNETWORK_SEEDS = "subnetwork.seeds";
+	private static String SUBNETWORK_HOPS = "subnetwork.hops";
 	
 	public static void main (String [] args) throws Exception {
 		if(args.length == 1) {
 			File propsFile = new File(args[0]);
 			if(propsFile.exists()) {
-				props = new Properties();
-				props.load(new FileReader(new File(args[0])));
-				
-				if(props.getProperty(ASSOCIATIONS) != null) {
-					if(props.getProperty(ASSOCIATIONS).equals("true")) {
-						associations = true;
-					}
-				}
-				
-				logFile = new File(props.getProperty(LOG_FILE));
-				log = new BufferedWriter(new FileWriter(logFile));
+				Properties props = new Properties();
+				props.load(new FileReader(propsFile));
 				
-				PathwayMerger gen = new PathwayMerger();
-				gen.init();
-				Graph graph;
-				System.out.println(associations);
-				if(!associations) {
-					graph = gen.createNetwork();
-				} else {
-					graph = gen.createAssociationsNetwork();
+				int cacheSize = 100000;
+				if(props.getProperty(CACHE_SIZE) != null) {
+					cacheSize = Integer.parseInt(props.getProperty(CACHE_SIZE).trim());
 				}
+				MapperPool mappers = new MapperPool(cacheSize, "true".equals(props.getProperty(PRELOAD)));
+				MergeConfig config = getConfig(props);
+				RunMetrics metrics = new RunMetrics();
 				
-				File output = new File(props.getProperty(OUTPUT_FILE));
-				XGMMLWriter.write(graph, new PrintWriter(output));
-				log.close();
-			}
-		}
-	}
-	
-
-	private static Properties props; 
-	private static File logFile;
-
-	public PathwayMerger() throws ClassNotFoundException {
-		directory = new File(props.getProperty(PATHWAY_DIR));
-		bridgedbGene = new File(props.getProperty(GENE_BRIDGEDB));
-		bridgedbMetabolites = new File(props.getProperty(METABOLITE_BRIDGEDB));
-
-		
-		nodes = new HashMap<String, Node>();
-		map = new HashMap<PathwayElement, Node>();
-		edges = new HashMap<String, Edge>();
-		graph = new Graph();
-	}
-	
-	private List<Pathway> pathways;
-	private Graph graph;
-	private Map<String, Node> nodes;
-	private Map<PathwayElement, Node> map;
-	private Map<String, Edge> edges;
-	
-	public Graph createAssociationsNetwork() throws ConverterException, IOException, IDMapperException {
-		log.write("Create association network for pathways in " + directory.getAbsolutePath());
-		pathways = readPathways(directory);
-		log.write("Parsing pathways from " + directory.getAbsolutePath() + "\n... containing " + pathways.size() + " pathways.");
-		for(Pathway pathway : pathways) {
-			List<Node> geneList = new ArrayList<Node>();
-			System.out.println(pathway.getMappInfo().getMapInfoName());
-			log.write("\n> Parse pathway " + pathway.getMappInfo().getMapInfoName() + " with " + pathway.getDataObjects().size() + " pathway elements.\n");
-			int genes = 0;
-			Node p = createPathwayNode(pathway);
-			for(PathwayElement e : pathway.getDataObjects()) {
-				if(e.getXref() != null && !e.getXref().getId().equals("") && e.getXref().getDataSource() != null) {
-					if(e.getDataNodeType().equals("GeneProduct") || e.getDataNodeType().equals("Protein")) {
-						genes++;
-						createNode(e, geneMapper, "En", pathway);
-						if(!geneList.contains(map.get(e))) {
-							geneList.add(map.get(e));
-							Edge edge = graph.addEdge(pathway.getSourceFile().getName() + "_" + genes, p, map.get(e));
-							edge.appendAttribute("Type", "Pathway-Gene Association");
+				BufferedWriter log = new BufferedWriter(new FileWriter(new File(props.getProperty(LOG_FILE))));
+				try {
+					Graph graph;
+					if(props.getProperty(REDUCE_DIR) != null) {
+						graph = MergeEngine.reduce(listShards(new File(props.getProperty(REDUCE_DIR))), log, metrics);
+					} else if(props.getProperty(SHARD_FILE) != null) {
+						PathwaySource source = PathwaySource.open(new File(props.getProperty(PATHWAY_DIR)));
+						File shard = new File(props.getProperty(SHARD_FILE));
+						try {
+							new MergeEngine(mappers).mergeShard(config, source, shard, log, metrics);
+						} finally {
+							source.close();
 						}
+						System.out.println("Shard " + config.getShard() + " of " + config.getShards() + " written to " + shard.getAbsolutePath());
+						writeReport(props, metrics, shard, log);
+						return;
+					} else if("true".equals(props.getProperty(WATCH))) {
+						watch(props, mappers, config, log);
+						return;
+					} else {
+						PathwaySource source = PathwaySource.open(new File(props.getProperty(PATHWAY_DIR)));
+						try {
+							graph = new MergeEngine(mappers).merge(config, source, log, metrics);
+						} finally {
+							source.close();
+						}
+					}
+					System.out.println("Conversion finished with " + graph.getNodes().size() + " nodes and " + graph.getEdges().size() + " edges.");
+					if(props.getProperty(SUBNETWORK_SEEDS) != null) {
+						graph = extractSubnetwork(props, mappers, config, graph, log, metrics);
+						System.out.println("Subnetwork with " + graph.getNodes().size() + " nodes and " + graph.getEdges().size() + " edges.");
 					}
+					writeResults(props, config, graph, log, metrics, false);
+				} finally {
+					log.close();
+					mappers.close();
 				}
 			}
-			
-			log.write("\tGene count: " + genes + "\n");
-			log.write("\n\n");
-		}
-		
-		for(Pathway p : pathways) {
-			graph.appendAttribute(pathways.indexOf(p) + " Pathway", p.getMappInfo().getMapInfoName());
 		}
-		
-		System.out.println("Conversion finished with " + graph.getNodes().size() + " nodes and " + graph.getEdges().size() + " edges.");
-		log.write("\n\nConversion finished with " + graph.getNodes().size() + " nodes and " + graph.getEdges().size() + " edges.");
-		return graph;
 	}
 	
-	public Graph createNetwork() throws IDMapperException, ConverterException, IOException {
-		log.write("Create merged network for pathways in " + directory.getAbsolutePath());
-		pathways = readPathways(directory);
-		log.write("Parsing pathways from " + directory.getAbsolutePath() + "\n... containing " + pathways.size() + " pathways.");
-		for(Pathway pathway : pathways) {
-			log.write("\n> Parse pathway " + pathway.getMappInfo().getMapInfoName() + " with " + pathway.getDataObjects().size() + " pathway elements.\n");
-			int genes = 0;
-			int metabolites = 0;
-			int pathways = 0;
-			int groups = 0;
-			int edges = 0;
-			for(PathwayElement e : pathway.getDataObjects()) {
-				if(e.getXref() != null && !e.getXref().getId().equals("") && e.getXref().getDataSource() != null) {
-					if(e.getDataNodeType().equals("GeneProduct") || e.getDataNodeType().equals("Protein")) {
-						// all genes and proteins are mapped to Ensembl
-						genes++;
-						createNode(e, geneMapper, "En", pathway);
-					} else if(e.getDataNodeType().equals("Metabolite")) {
-						// all metabolites are mapped to HMDB
-						metabolites++;
-						createNode(e, metMapper, "Ch", pathway);
-					} else if(e.getDataNodeType().equals("Pathway")) {
-						pathways++;
-						createNode(e, null, "Wp", pathway);
-					}
-				} else {
-					
-				}
-			}
-			for(PathwayElement e : pathway.getDataObjects()) {
-				if(e.getObjectType().equals(ObjectType.GROUP)) {
-					groups++;
-					createGroup(e, pathway);
-				}
-			}
-			for(PathwayElement e : pathway.getDataObjects()) {
-				if(e.getObjectType().equals(ObjectType.LINE)) {
-					edges++;
-					createEdge(e, pathway);
-				}
-			}
-			log.write("\tGene count: " + genes + "\n");
-			log.write("\tMetabolite count: " + metabolites + "\n");
-			log.write("\tPathway count: " + pathways + "\n");
-			log.write("\tGroup count: " + groups + "\n");
-			log.write("\tEdge count: " + edges + "\n");
-			log.write("\n\n");
+	/**
+	 * writes the network and everything that is made from it
+	 * @param replace writes the network to a temporary file first
+	 * and then replaces the output, so readers never see a partly
+	 * written network
+	 */
+	private static void writeResults(Properties props, MergeConfig config, Graph graph, Writer log, RunMetrics metrics, boolean replace) throws Exception {
+		if(props.getProperty(ANALYSIS_FILE) != null || "true".equals(props.getProperty(ANALYSIS_ATTRIBUTES))) {
+			analyze(props, config, graph, log, metrics);
 		}
 		
-		for(Pathway p : pathways) {
-			graph.appendAttribute(pathways.indexOf(p) + " Pathway", p.getMappInfo().getMapInfoName());
+		File output = new File(props.getProperty(OUTPUT_FILE));
+		boolean indent = !"false".equals(props.getProperty(OUTPUT_INDENT));
+		GraphWriter writer = GraphWriters.get(props.getProperty(OUTPUT_FORMAT), indent);
+		long start = System.nanoTime();
+		if(replace) {
+			File tmp = new File(output.getAbsolutePath() + ".tmp");
+			GraphWriters.write(writer, graph, tmp);
+			Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} else {
+			GraphWriters.write(writer, graph, output);
 		}
-		
-		System.out.println("Conversion finished with " + nodes.size() + " nodes and " + edges.size() + " edges.");
-		log.write("\n\nConversion finished with " + nodes.size() + " nodes and " + edges.size() + " edges.");
-		return graph;
+		metrics.record(Phase.WRITE, start, graph.getNodes().size() + graph.getEdges().size());
+		if(config.isAssociations() && props.getProperty(SIMILARITY_FILE) != null) {
+			writeSimilarity(props, config, graph, writer, log, metrics);
+		}
+		writeReport(props, metrics, output, log);
 	}
 	
-	
-	
-	private void createGroup(PathwayElement e, Pathway pathway) {
-		MGroup group = (MGroup)e;
-		List<PathwayElement> list = new ArrayList<PathwayElement>();
-		for(PathwayElement groupElement : group.getGroupElements()) {
-			if(map.containsKey(groupElement)) {
-				list.add(groupElement);
-			}
+	/**
+	 * merges pathway.dir and then rewrites the output on every change
+	 * of the GPML files and archives in its tree, until the process is
+	 * stopped
+	 */
+	private static void watch(final Properties props, final MapperPool mappers, final MergeConfig config, final Writer log) throws Exception {
+		File dir = new File(props.getProperty(PATHWAY_DIR));
+		if(!dir.isDirectory()) {
+			throw new IOException("watch=true needs pathway.dir to be a directory, " + dir.getAbsolutePath() + " is not");
 		}
-		if(list.size() >= 2) {
-			String id = pathways.indexOf(pathway) + "." + e.getGroupId();
-			Node groupNode = graph.addNode(id);
-			groupNode.appendAttribute("Type", "Group");
-			groupNode.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-			map.put(e, groupNode);
-			nodes.put(id, groupNode);
-			
-			for(PathwayElement element : list) {
-				String edgeId = map.get(element).getId() + " - " + id;
-				if(!edges.containsKey(edgeId)) {
-					Edge edge = graph.addEdge(edgeId, map.get(element), groupNode);
-					edge.appendAttribute("Type", "Group");
-					edge.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-					edges.put(edgeId, edge);
-				} else {
-					Edge edge = graph.getEdge(edgeId);
-					String attr = (String) edge.getAttribute("pathways");
-					if(!attr.contains(pathways.indexOf(pathway)+"")) {
-						edge.setAttribute("pathways", attr + " | " + pathways.indexOf(pathway)+"");
-					}
+		PathwayWatcher watcher = new PathwayWatcher(new MergeEngine(mappers), config, dir, new PathwayWatcher.Listener() {
+			public void updated(Graph graph, RunMetrics metrics) throws Exception {
+				if(props.getProperty(SUBNETWORK_SEEDS) != null) {
+					graph = extractSubnetwork(props, mappers, config, graph, log, metrics);
 				}
+				writeResults(props, config, graph, log, metrics, true);
+				System.out.println("Network updated with " + graph.getNodes().size() + " nodes and " + graph.getEdges().size() + " edges.");
 			}
+		});
+		if(props.getProperty(WATCH_DEBOUNCE) != null) {
+			watcher.setDebounce(Long.parseLong(props.getProperty(WATCH_DEBOUNCE).trim()));
 		}
+		System.out.println("Watching " + dir.getAbsolutePath() + " for changes.");
+		watcher.watch(log);
 	}
-
-	private void createEdge(PathwayElement e, Pathway pathway) {
-		MLine line = (MLine)e;
-		PathwayElement start = pathway.getElementById(line.getStartGraphRef());
-		PathwayElement end = pathway.getElementById(line.getEndGraphRef());
-		if(line.getMAnchors().size() == 0) {
-			if(start != null && end != null) {
-				if(map.containsKey(start) && map.containsKey(end)) {
-					String id = map.get(start).getId() + " - " + map.get(end).getId();
-					if(!edges.containsKey(id)) {
-						Edge edge = graph.addEdge(id, map.get(start), map.get(end));
-						edge.appendAttribute("Type", line.getStartLineType().getName());
-						edge.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-						edges.put(id, edge);
-					} else {
-						Edge edge = graph.getEdge(id);
-						String attr = (String) edge.getAttribute("pathways");
-						if(!attr.contains(pathways.indexOf(pathway)+"")) {
-							edge.setAttribute("pathways", attr + " | " + pathways.indexOf(pathway)+"");
-						}
-					}
-				}
-			}
-		} else {
-			List<PathwayElement> list = new ArrayList<PathwayElement>();
-			if(start != null && map.containsKey(start)) list.add(start);
-			if(end != null && map.containsKey(end)) list.add(end);
-			for(MAnchor anchor : line.getMAnchors()) {
-				for(PathwayElement l : pathway.getDataObjects()) {
-					if(l.getObjectType().equals(ObjectType.LINE)) {
-						if(l.getStartGraphRef() != null && l.getEndGraphRef() != null) {
-							if(l.getStartGraphRef().equals(anchor.getGraphId())) {
-								if(map.containsKey(pathway.getElementById(l.getEndGraphRef()))) {
-									list.add(pathway.getElementById(l.getEndGraphRef()));
-								}
-							} else if(l.getEndGraphRef().equals(anchor.getGraphId())) {
-								if(map.containsKey(pathway.getElementById(l.getStartGraphRef()))) {
-									list.add(pathway.getElementById(l.getStartGraphRef()));
-								}
-							}
-						}
-					}
-				}
-			}
-			if(list.size() == 2) {
-				String id = map.get(list.get(0)).getId() + " - " + map.get(list.get(1)).getId();
-				if(!edges.containsKey(id)) {
-					Edge edge = graph.addEdge(id, map.get(list.get(0)), map.get(list.get(1)));
-					edge.appendAttribute("Type", "Anchor");
-					edge.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-					edges.put(id, edge);
-				} else {
-					Edge edge = graph.getEdge(id);
-					String attr = (String) edge.getAttribute("pathways");
-					if(!attr.contains(pathways.indexOf(pathway)+"")) {
-						edge.setAttribute("pathways", attr + " | " + pathways.indexOf(pathway)+"");
-					}
-				}
-			} else if (list.size() > 2) {
-				String id = pathways.indexOf(pathway) + "." + line.getMAnchors().get(0).getGraphId();
-				Node anchorNode = graph.addNode(id);
-				anchorNode.appendAttribute("Type", "Anchor");
-				anchorNode.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-				map.put(line, anchorNode);
-				nodes.put(id, anchorNode);
-				
-				for(PathwayElement element : list) {
-					String edgeId = map.get(element).getId() + " - " + id;
-					Edge edge = graph.addEdge(edgeId, map.get(element), anchorNode);
-					edge.appendAttribute("Type", "Anchor");
-					edge.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-					edges.put(edgeId, edge);
-				}
-			}
+	
+	private static void writeReport(Properties props, RunMetrics metrics, File output, Writer log) throws Exception {
+		if(props.getProperty(REPORT_FILE) != null) {
+			File report = new File(props.getProperty(REPORT_FILE));
+			metrics.put("output", output.getAbsolutePath());
+			metrics.writeReport(report);
+			log.write("\nRun report written to " + report.getAbsolutePath());
 		}
 	}
 	
-	private void createNode(PathwayElement e, IDMapper mapper, String systemCode, Pathway pathway) throws IDMapperException {
-		if(mapper == null) {
-			if(e.getXref() == null) {
-				Node node = graph.addNode(e.getGraphId());
-				node.appendAttribute("Label", e.getTextLabel());
-				node.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-				node.appendAttribute("pathwayCount", 1+"");
-				node.appendAttribute("Type", e.getDataNodeType());
-				map.put(e, node);
-			} else {
-				if(!nodes.containsKey(e.getXref().getId())) {
-					Node node = graph.addNode(e.getXref().getId());
-					node.appendAttribute("GeneId", e.getXref().getId());
-					node.appendAttribute("UnifiedId", "");
-					node.appendAttribute("Label", e.getTextLabel());
-					node.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-					node.appendAttribute("pathwayCount", 1+"");
-					node.appendAttribute("Type", e.getDataNodeType());
-					map.put(e, node);
-					nodes.put(e.getXref().getId(), node);
-				} else {
-					Node node = nodes.get(e.getXref().getId());
-					String attr = (String) node.getAttribute("pathways");
-					int attrCount = Integer.parseInt((String)node.getAttribute("pathwayCount"));
-					if(!attr.contains(pathways.indexOf(pathway)+"")) {
-						node.setAttribute("pathwayCount", (attrCount+1)+"");
-						node.setAttribute("pathways", attr + " | " + pathways.indexOf(pathway)+"");
-					}
-					map.put(e, node);
-				}
+	/**
+	 * the shard files of a directory, all files ending with ".shard"
+	 */
+	private static List<File> listShards(File dir) throws IOException {
+		File [] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".shard");
 			}
-		} else {
-			Xref unifiedId = null;
-			String syscode;
-			if(e.getXref().getDataSource().getFullName().equals("Uniprot/TrEMBL")) {
-				syscode = "S";
-			} else {
-				syscode = e.getXref().getDataSource().getSystemCode();
+		});
+		if(files == null) {
+			throw new IOException("Shard directory " + dir.getAbsolutePath() + " does not exist");
+		}
+		Arrays.sort(files);
+		return Arrays.asList(files);
+	}
+	
+	/**
+	 * the neighbourhood of the seeds, which are node ids or
+	 * "system code:id" xrefs that are mapped like the data nodes
+	 * of the pathways
+	 */
+	private static Graph extractSubnetwork(Properties props, MapperPool mappers, MergeConfig config, Graph graph, Writer log, RunMetrics metrics) throws Exception {
+		int hops = 1;
+		if(props.getProperty(SUBNETWORK_HOPS) != null) {
+			hops = Integer.parseInt(props.getProperty(SUBNETWORK_HOPS).trim());
+		}
+		MergeEngine engine = new MergeEngine(mappers);
+		List<Node> seeds = new ArrayList<Node>();
+		for(String seed : props.getProperty(SUBNETWORK_SEEDS).split(",")) {
+			seed = seed.trim();
+			if(seed.length() == 0) continue;
+			Collection<String> ids = Collections.singleton(seed);
+			int colon = seed.indexOf(':');
+			// mapping databases are not needed to combine shards
+			if(colon > 0 && DataSource.systemCodeExists(seed.substring(0, colon)) && config.getGeneDatabase() != null) {
+				Xref xref = new Xref(seed.substring(colon + 1), DataSource.getExistingBySystemCode(seed.substring(0, colon)));
+				ids = engine.getNodeIds(config, xref);
 			}
-			if(syscode != null) {
-				if(syscode.equals(systemCode)) {
-					unifiedId = e.getXref();
-				} else {
-					Set<Xref> res = mapper.mapID(e.getXref(), DataSource.getExistingBySystemCode(systemCode));
-					if(res.size() != 0) {
-						unifiedId = res.iterator().next();
-					}
+			boolean found = false;
+			for(String id : ids) {
+				Node node = graph.getNode(id);
+				if(node != null) {
+					seeds.add(node);
+					found = true;
 				}
 			}
-			
-			if(unifiedId != null) {
-				if(!nodes.containsKey(unifiedId.getId())) {
-					Node node = graph.addNode(unifiedId.getId());
-					node.appendAttribute("GeneId", e.getXref().getId());
-					node.appendAttribute("UnifiedId", unifiedId.getId());
-					node.appendAttribute("Label", getLabel(e, unifiedId));
-					node.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-					node.appendAttribute("pathwayCount", 1+"");
-					node.appendAttribute("Type", e.getDataNodeType());
-					map.put(e, node);
-					nodes.put(unifiedId.getId(), node);
-				} else {
-					Node node = nodes.get(unifiedId.getId());
-					String attr = (String) node.getAttribute("pathways");
-					int attrCount = Integer.parseInt((String)node.getAttribute("pathwayCount"));
-					if(!attr.contains(pathways.indexOf(pathway)+"")) {
-						node.setAttribute("pathwayCount", (attrCount+1)+"");
-						node.setAttribute("pathways", attr + " | " + pathways.indexOf(pathway)+"");
-					}
-					map.put(e, node);
-				}
-			} else {
-				String id = e.getXref().getId();
-				if(!nodes.containsKey(id)) {
-					Node node = graph.addNode(id);
-					node.appendAttribute("GeneId", e.getXref().getId());
-					node.appendAttribute("Label", getLabel(e, e.getXref()));
-					node.appendAttribute("pathways", pathways.indexOf(pathway) +"");
-					node.appendAttribute("pathwayCount", 1+"");
-					node.appendAttribute("Type", e.getDataNodeType());
-					map.put(e, node);
-					nodes.put(id, node);
-				} else {
-					Node node = nodes.get(id);
-					String attr = (String) node.getAttribute("pathways");
-					int attrCount = Integer.parseInt((String)node.getAttribute("pathwayCount"));
-					if(!attr.contains(pathways.indexOf(pathway)+"")) {
-						node.setAttribute("pathwayCount", (attrCount+1)+"");
-						node.setAttribute("pathways", attr + " | " + pathways.indexOf(pathway)+"");
-					}
-					map.put(e, node);
-				}
+			if(!found) {
+				log.write("\nSeed " + seed + " is not in the network");
 			}
 		}
+		long start = System.nanoTime();
+		Graph subnetwork = new Subnetwork(graph).extract(seeds, hops);
+		metrics.record(Phase.SUBNETWORK, start, subnetwork.getNodes().size() + subnetwork.getEdges().size());
+		metrics.put("subnetworkSeeds", seeds.size());
+		metrics.put("subnetworkNodes", subnetwork.getNodes().size());
+		metrics.put("subnetworkEdges", subnetwork.getEdges().size());
+		log.write("\nSubnetwork of " + seeds.size() + " seed nodes within " + hops + " hops: " + subnetwork.getNodes().size() +
+				" nodes and " + subnetwork.getEdges().size() + " edges.");
+		return subnetwork;
 	}
 	
-	private String getLabel(PathwayElement element, Xref xref) throws IDMapperException {
-		if(element.getDataNodeType().equals("Metabolite")) {
-			return element.getTextLabel();
-		} else {
-			Map<String, Set<String>> attrMap = geneAttr.getAttributes(xref);
-			Set<String> symbol = attrMap.get("Symbol");
-			if(symbol != null && symbol.size() > 0) {
-				return symbol.iterator().next();
-			} else {
-				return element.getTextLabel();
-			}
+	/**
+	 * computes the network statistics, adds them to the nodes
+	 * before the output is written and writes the summary
+	 */
+	private static void analyze(Properties props, MergeConfig config, Graph graph, Writer log, RunMetrics metrics) throws Exception {
+		NetworkAnalysis analysis = new NetworkAnalysis().setThreads(config.getMergeThreads());
+		if(props.getProperty(ANALYSIS_HUBS) != null) {
+			analysis.setHubs(Integer.parseInt(props.getProperty(ANALYSIS_HUBS).trim()));
+		}
+		long start = System.nanoTime();
+		analysis.analyze(graph);
+		if("true".equals(props.getProperty(ANALYSIS_ATTRIBUTES))) {
+			analysis.addAttributes();
+		}
+		metrics.record(Phase.ANALYSIS, start, graph.getNodes().size());
+		metrics.put("components", analysis.getComponentCount());
+		log.write("\nNetwork has " + analysis.getComponentCount() + " connected components");
+		if(analysis.getComponentCount() > 0) {
+			log.write(", the largest with " + analysis.getComponentSizes()[0] + " nodes");
+		}
+		if(props.getProperty(ANALYSIS_FILE) != null) {
+			File file = new File(props.getProperty(ANALYSIS_FILE));
+			analysis.writeSummary(file);
+			log.write("\nNetwork analysis written to " + file.getAbsolutePath());
 		}
 	}
 	
-	private Node createPathwayNode(Pathway p) {
-		Node node = graph.addNode(p.getSourceFile().getName());
-		node.appendAttribute("Label", p.getMappInfo().getMapInfoName());
-		node.appendAttribute("Type", "pathway");
-		return node;
-	}
-		
-	private List<Pathway> readPathways(File directory) throws ConverterException {
-		List<Pathway> list = new ArrayList<Pathway>();
-		
-		for(File file : directory.listFiles()) {
-			if(file.getName().endsWith(".gpml")) {
-				Pathway pathway = new Pathway();
-				pathway.readFromXml(file, true);
-				list.add(pathway);
-			}
+	/**
+	 * writes the pathway similarity network of the association
+	 * network in the same format as the output
+	 */
+	private static void writeSimilarity(Properties props, MergeConfig config, Graph associations, GraphWriter writer, Writer log, RunMetrics metrics) throws Exception {
+		PathwaySimilarity similarity = new PathwaySimilarity().setThreads(config.getMergeThreads());
+		if(props.getProperty(SIMILARITY_MEASURE) != null) {
+			similarity.setMeasure(PathwaySimilarity.Measure.valueOf(props.getProperty(SIMILARITY_MEASURE).trim().toUpperCase()));
 		}
-		
-		return list;
+		if(props.getProperty(SIMILARITY_THRESHOLD) != null) {
+			similarity.setThreshold(Double.parseDouble(props.getProperty(SIMILARITY_THRESHOLD).trim()));
+		}
+		if(props.getProperty(SIMILARITY_MINHASH) != null) {
+			similarity.setMinHash(Integer.parseInt(props.getProperty(SIMILARITY_MINHASH).trim()));
+		}
+		long start = System.nanoTime();
+		Graph graph = similarity.create(associations);
+		metrics.record(Phase.SIMILARITY, start, graph.getNodes().size());
+		File file = new File(props.getProperty(SIMILARITY_FILE));
+		GraphWriters.write(writer, graph, file);
+		metrics.put("similarityEdges", graph.getEdges().size());
+		log.write("\nPathway similarity network with " + graph.getNodes().size() + " pathways and " + graph.getEdges().size() +
+				" edges written to " + file.getAbsolutePath());
 	}
 	
-	private void init() throws IDMapperException, ClassNotFoundException {
-		DataSourceTxt.init();
-		Class.forName("org.bridgedb.rdb.IDMapperRdb");
-		
-		geneMapper = BridgeDb.connect("idmapper-pgdb:" + bridgedbGene.getAbsolutePath());
-		metMapper = BridgeDb.connect("idmapper-pgdb:" + bridgedbMetabolites.getAbsolutePath());
-		geneAttr = (AttributeMapper) geneMapper;
+	/**
+	 * the merge settings of the properties file
+	 */
+	public static MergeConfig getConfig(Properties props) {
+		MergeConfig config = new MergeConfig();
+		config.setAssociations("true".equals(props.getProperty(ASSOCIATIONS)));
+		// not needed to combine shards
+		if(props.getProperty(GENE_BRIDGEDB) != null) {
+			config.setGeneDatabase(new File(props.getProperty(GENE_BRIDGEDB)));
+		}
+		if(props.getProperty(METABOLITE_BRIDGEDB) != null) {
+			config.setMetaboliteDatabase(new File(props.getProperty(METABOLITE_BRIDGEDB)));
+		}
+		if(props.getProperty(PARSER_THREADS) != null) {
+			config.setParserThreads(Integer.parseInt(props.getProperty(PARSER_THREADS).trim()));
+		}
+		if(props.getProperty(MERGE_THREADS) != null) {
+			config.setMergeThreads(Integer.parseInt(props.getProperty(MERGE_THREADS).trim()));
+		}
+		config.setStreaming("true".equals(props.getProperty(STREAMING)));
+		config.setFastIngest("true".equals(props.getProperty(FAST_INGEST)));
+		config.setPrefetch("true".equals(props.getProperty(PREFETCH)));
+		if(props.getProperty(SNAPSHOT_FILE) != null) {
+			config.setSnapshotFile(new File(props.getProperty(SNAPSHOT_FILE)));
+		}
+		if(props.getProperty(PROGRESS_INTERVAL) != null) {
+			config.setProgressInterval(Integer.parseInt(props.getProperty(PROGRESS_INTERVAL).trim()));
+		}
+		if(props.getProperty(SHARD_COUNT) != null) {
+			config.setShard(Integer.parseInt(props.getProperty(SHARD_INDEX, "0").trim()), Integer.parseInt(props.getProperty(SHARD_COUNT).trim()));
+		}
+		return config;
 	}
 }
@@ -0,0 +1,213 @@
+package org.pathvisio.merger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.merger.RunMetrics.Phase;
+
+/**
+ * Parses the GPML files of a directory, or the pathways of a
+ * {@link PathwaySource}, on a pool of worker threads. Pathways
+ * are handed out in source order and the results are returned
+ * in that same order, so pathway indices do not depend on which
+ * worker finishes first.
+ *
+ * At most "window" parsed pathways are kept ahead of the
+ * consumer, which bounds memory use when pathways are merged
+ * one by one with {@link #next()}. A reader can also replay
+ * pathways that have already been parsed.
+ *
+ * With fast ingest the files are not read into the PathVisio
+ * model but streamed by {@link GpmlExtractor}, such pathways are
+ * only available as {@link PathwayContent}.
+ *
+ * @author mkutmon
+ *
+ */
+public class PathwayReader {
+
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+	private int threads;
+	private int window;
+
+	private List<PathwaySource.Input> inputs;
+	private List<PathwayContent> contents;
+	private Iterator<PathwayContent> replay;
+	private ExecutorService executor;
+	private Iterator<PathwaySource.Input> remaining;
+	private LinkedList<Future<PathwayContent>> pending;
+	private RunMetrics metrics;
+	private boolean fastIngest;
+
+	public PathwayReader(File directory, int threads) {
+		this(directory, threads, UNBOUNDED);
+	}
+
+	public PathwayReader(File directory, int threads, int window) {
+		this(PathwaySource.directory(directory), threads, window);
+	}
+
+	public PathwayReader(PathwaySource source, int threads, int window) {
+		this(source.getInputs(), threads, window);
+	}
+
+	/**
+	 * reads the given pathways of a source
+	 */
+	PathwayReader(List<PathwaySource.Input> inputs, int threads, int window) {
+		this.inputs = inputs;
+		this.threads = Math.max(1, threads);
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * replays pathways that have already been read
+	 */
+	static PathwayReader replay(List<PathwayContent> contents) {
+		PathwayReader reader = new PathwayReader(Collections.<PathwaySource.Input>emptyList(), 1, UNBOUNDED);
+		reader.contents = contents;
+		return reader;
+	}
+
+	/**
+	 * streams the GPML instead of building the PathVisio model,
+	 * pathways that are not GPML 2013a are still read into the model
+	 */
+	public void setFastIngest(boolean fastIngest) {
+		this.fastIngest = fastIngest;
+	}
+
+	/**
+	 * the time spent parsing each file is recorded in these metrics
+	 */
+	public void setMetrics(RunMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public List<Pathway> readAll() throws ConverterException {
+		List<Pathway> list = new ArrayList<Pathway>();
+		open();
+		try {
+			Pathway pathway;
+			while((pathway = next()) != null) {
+				list.add(pathway);
+			}
+		} finally {
+			close();
+		}
+		return list;
+	}
+
+	/**
+	 * starts parsing the first pathways of the source
+	 */
+	public void open() {
+		if(contents != null) {
+			replay = contents.iterator();
+			return;
+		}
+		remaining = inputs.iterator();
+		pending = new LinkedList<Future<PathwayContent>>();
+		if(threads > 1) {
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "gpml-reader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			while(pending.size() < window && remaining.hasNext()) {
+				submit(remaining.next());
+			}
+		}
+	}
+
+	/**
+	 * returns the next pathway in source order or null
+	 * if all pathways have been read
+	 */
+	public Pathway next() throws ConverterException {
+		PathwayContent content = nextContent();
+		if(content == null) {
+			return null;
+		}
+		if(content.pathway == null) {
+			throw new IllegalStateException("Pathway " + content.file + " was read with fast ingest");
+		}
+		return content.pathway;
+	}
+
+	/**
+	 * returns the merged elements of the next pathway in source
+	 * order or null if all pathways have been read
+	 */
+	PathwayContent nextContent() throws ConverterException {
+		if(replay != null) {
+			return replay.hasNext() ? replay.next() : null;
+		}
+		if(executor == null) {
+			return remaining.hasNext() ? read(remaining.next()) : null;
+		}
+		if(pending.isEmpty()) {
+			return null;
+		}
+		Future<PathwayContent> future = pending.removeFirst();
+		if(remaining.hasNext()) {
+			submit(remaining.next());
+		}
+		return get(future);
+	}
+
+	public void close() {
+		if(executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		pending = null;
+		replay = null;
+	}
+
+	private void submit(final PathwaySource.Input input) {
+		pending.add(executor.submit(new Callable<PathwayContent>() {
+			public PathwayContent call() throws ConverterException {
+				return read(input);
+			}
+		}));
+	}
+
+	private PathwayContent read(PathwaySource.Input input) throws ConverterException {
+		long start = System.nanoTime();
+		PathwayContent content = input.read(fastIngest);
+		if(metrics != null) {
+			metrics.record(Phase.PARSE, start, content.elements);
+		}
+		return content;
+	}
+
+	static <T> T get(Future<T> future) throws ConverterException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConverterException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof ConverterException) {
+				throw (ConverterException) e.getCause();
+			}
+			throw new ConverterException(e);
+		}
+	}
+}
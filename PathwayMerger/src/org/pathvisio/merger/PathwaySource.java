@@ -0,0 +1,330 @@
+package org.pathvisio.merger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.core.model.Pathway;
+
+/**
+ * The pathways a merge reads: the GPML files of a directory or
+ * of pathway archives, GPML streams or pathways that are already
+ * in memory. Pathways
+ * are merged in the order they were added, a directory adds its
+ * .gpml files sorted by file name.
+ *
+ * Every pathway has a name that identifies it in the log and in
+ * the snapshot. Files and streams have a checksum, so their
+ * contribution can be reused from a snapshot, pathways in memory
+ * are always merged.
+ *
+ * Archives stay open while their pathways are read, closing the
+ * source closes them. {@link MergeEngine} closes the source when
+ * the merge is done.
+ *
+ * @author mkutmon
+ *
+ */
+public class PathwaySource implements Closeable {
+
+	/**
+	 * checksums of GPML files that are already known, for trees that
+	 * are opened again and again
+	 */
+	interface Checksums {
+		String get(File file) throws IOException;
+	}
+
+	private String description;
+	private List<Input> inputs = new ArrayList<Input>();
+	// archives the inputs are read from
+	private List<Closeable> resources = new ArrayList<Closeable>();
+
+	/**
+	 * @param description where the pathways come from, as written to the log
+	 */
+	public PathwaySource(String description) {
+		this.description = description;
+	}
+
+	/**
+	 * all .gpml files in the directory, sorted by file name
+	 */
+	public static PathwaySource directory(File directory) {
+		PathwaySource source = new PathwaySource(directory.getAbsolutePath());
+		File [] list = directory.listFiles();
+		if(list != null) {
+			Arrays.sort(list);
+			for(File file : list) {
+				if(file.getName().endsWith(".gpml")) {
+					source.add(file);
+				}
+			}
+		}
+		return source;
+	}
+
+	/**
+	 * the pathways of a directory, of its subdirectories and of the
+	 * .zip and .tar.gz archives in them, or of a single archive. Each
+	 * directory adds its entries sorted by name, subdirectories and
+	 * archives in their place in that order. Pathways are named by
+	 * their path below the directory, so a flat directory gives the
+	 * same source as {@link #directory(File)}.
+	 */
+	public static PathwaySource open(File file) throws IOException {
+		return open(file, null);
+	}
+
+	/**
+	 * @param checksums gives the checksums of the GPML files, or null
+	 * to take them when a snapshot needs them
+	 */
+	static PathwaySource open(File file, Checksums checksums) throws IOException {
+		PathwaySource source = new PathwaySource(file.getAbsolutePath());
+		try {
+			if(file.isDirectory()) {
+				source.addTree(file, "", checksums);
+			} else if(PathwayArchive.isArchive(file)) {
+				PathwayArchive.add(source, file, "");
+			} else {
+				throw new IOException(file.getAbsolutePath() + " is neither a directory nor a pathway archive");
+			}
+		} catch (IOException e) {
+			try {
+				source.close();
+			} catch (IOException closing) {
+				// the first error is reported
+			}
+			throw e;
+		}
+		return source;
+	}
+
+	private void addTree(File directory, String prefix, Checksums checksums) throws IOException {
+		File [] list = directory.listFiles();
+		if(list == null) {
+			return;
+		}
+		Arrays.sort(list);
+		for(File file : list) {
+			if(file.isDirectory()) {
+				addTree(file, prefix + file.getName() + "/", checksums);
+			} else if(file.getName().endsWith(".gpml")) {
+				FileInput input = new FileInput(prefix + file.getName(), file);
+				if(checksums != null) {
+					input.checksum = checksums.get(file);
+				}
+				inputs.add(input);
+			} else if(PathwayArchive.isArchive(file)) {
+				PathwayArchive.add(this, file, prefix + file.getName() + "/");
+			}
+		}
+	}
+
+	public PathwaySource add(File file) {
+		inputs.add(new FileInput(file));
+		return this;
+	}
+
+	/**
+	 * reads the GPML from the stream when the pathway is merged, the
+	 * stream is read to the end and closed, its content is kept
+	 * with the source
+	 */
+	public PathwaySource add(String name, InputStream in) {
+		inputs.add(new StreamInput(name, in));
+		return this;
+	}
+
+	public PathwaySource add(String name, Pathway pathway) {
+		inputs.add(new PathwayInput(name, pathway));
+		return this;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public int size() {
+		return inputs.size();
+	}
+
+	void add(Input input) {
+		inputs.add(input);
+	}
+
+	/**
+	 * closed with the source
+	 */
+	void addResource(Closeable resource) {
+		resources.add(resource);
+	}
+
+	/**
+	 * closes the archives of the source, their pathways can not
+	 * be read anymore. Closing a source twice has no effect.
+	 */
+	public void close() throws IOException {
+		IOException failure = null;
+		for(Closeable resource : resources) {
+			try {
+				resource.close();
+			} catch (IOException e) {
+				if(failure == null) failure = e;
+			}
+		}
+		resources.clear();
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	List<Input> getInputs() {
+		return Collections.unmodifiableList(inputs);
+	}
+
+	public String toString() {
+		return description;
+	}
+
+	/**
+	 * parses GPML that is already in memory
+	 * @param name name of the pathway in the source
+	 */
+	static PathwayContent read(byte [] gpml, String name, boolean fastIngest) throws ConverterException {
+		PathwayContent content = fastIngest ? GpmlExtractor.read(new ByteArrayInputStream(gpml), name) : null;
+		if(content == null) {
+			Pathway pathway = new Pathway();
+			pathway.readFromXml(new ByteArrayInputStream(gpml), true);
+			content = new PathwayContent(pathway, name);
+		}
+		return content;
+	}
+
+	/**
+	 * one pathway of the source
+	 */
+	static abstract class Input {
+		final String name;
+
+		Input(String name) {
+			this.name = name;
+		}
+
+		abstract PathwayContent read(boolean fastIngest) throws ConverterException;
+
+		/**
+		 * MD5 checksum of the GPML or null if the pathway has none
+		 */
+		abstract String checksum() throws IOException;
+	}
+
+	private static class FileInput extends Input {
+		private File file;
+		private String checksum;
+
+		FileInput(File file) {
+			this(file.getName(), file);
+		}
+
+		FileInput(String name, File file) {
+			super(name);
+			this.file = file;
+		}
+
+		PathwayContent read(boolean fastIngest) throws ConverterException {
+			PathwayContent content = fastIngest ? GpmlExtractor.read(file, name) : null;
+			if(content == null) {
+				Pathway pathway = new Pathway();
+				pathway.readFromXml(file, true);
+				content = new PathwayContent(pathway, name);
+			}
+			return content;
+		}
+
+		String checksum() throws IOException {
+			if(checksum == null) {
+				checksum = Snapshot.checksum(file);
+			}
+			return checksum;
+		}
+	}
+
+	/**
+	 * the stream is buffered on first use, so the checksum can be
+	 * taken before the pathway is parsed and the pathway can be
+	 * parsed twice when mappings are prefetched in streaming mode
+	 */
+	private static class StreamInput extends Input {
+		private InputStream in;
+		private byte [] bytes;
+
+		StreamInput(String name, InputStream in) {
+			super(name);
+			this.in = in;
+		}
+
+		PathwayContent read(boolean fastIngest) throws ConverterException {
+			try {
+				return PathwaySource.read(getBytes(), name, fastIngest);
+			} catch (IOException e) {
+				throw new ConverterException(e);
+			}
+		}
+
+		String checksum() throws IOException {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(e.getMessage());
+			}
+			return Snapshot.toHex(digest.digest(getBytes()));
+		}
+
+		private synchronized byte [] getBytes() throws IOException {
+			if(bytes == null) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				try {
+					byte [] buffer = new byte[1 << 16];
+					int n;
+					while((n = in.read(buffer)) > 0) {
+						out.write(buffer, 0, n);
+					}
+				} finally {
+					in.close();
+				}
+				bytes = out.toByteArray();
+			}
+			return bytes;
+		}
+	}
+
+	private static class PathwayInput extends Input {
+		private Pathway pathway;
+
+		PathwayInput(String name, Pathway pathway) {
+			super(name);
+			this.pathway = pathway;
+		}
+
+		PathwayContent read(boolean fastIngest) {
+			return new PathwayContent(pathway, name);
+		}
+
+		String checksum() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package org.pathvisio.merger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.bridgedb.IDMapperException;
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.merger.graph.Graph;
+
+/**
+ * Keeps the network of a pathway directory up to date while the
+ * GPML files in it are edited. The directory is read like
+ * {@link PathwaySource#open(File)}, with its subdirectories and
+ * archives, and new subdirectories are watched as soon as they
+ * appear; a single archive can not be watched. The contributions
+ * of all pathways are kept in memory, like a snapshot that is
+ * never written, and
+ * the mapping databases stay connected with their caches. When
+ * files are added, changed or removed only those files are parsed
+ * and mapped again, the network is then merged from the kept
+ * contributions, which gives the same network as a full run.
+ *
+ * Changes are collected until no file event arrived for the
+ * debounce time, so saving many files at once, or an editor that
+ * writes a file in several steps, causes a single update.
+ *
+ * @author mkutmon
+ *
+ */
+public class PathwayWatcher {
+
+	/**
+	 * receives the network after every update
+	 */
+	public interface Listener {
+		void updated(Graph graph, RunMetrics metrics) throws Exception;
+	}
+
+	private static class Stamp {
+		final long length;
+		final long modified;
+		final String checksum;
+
+		Stamp(long length, long modified, String checksum) {
+			this.length = length;
+			this.modified = modified;
+			this.checksum = checksum;
+		}
+	}
+
+	private MergeEngine engine;
+	private MergeConfig config;
+	private File directory;
+	private Listener listener;
+	private long debounce = 250;
+	private Snapshot snapshot = new Snapshot(null);
+	// checksums of files, by path, that did not change since they were taken
+	private Map<String, Stamp> stamps = new HashMap<String, Stamp>();
+	private volatile WatchService watcher;
+	// the watched directories of the tree
+	private Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+	public PathwayWatcher(MergeEngine engine, MergeConfig config, File directory, Listener listener) {
+		this.engine = engine;
+		this.config = config;
+		this.directory = directory;
+		this.listener = listener;
+	}
+
+	/**
+	 * milliseconds without file events before the network is updated
+	 */
+	public PathwayWatcher setDebounce(long debounce) {
+		this.debounce = Math.max(0, debounce);
+		return this;
+	}
+
+	/**
+	 * merges the current content of the directory, only pathways
+	 * that changed since the last update are parsed and mapped
+	 */
+	public Graph update(Writer log) throws IDMapperException, ConverterException, IOException {
+		RunMetrics metrics = new RunMetrics();
+		Graph graph = engine.merge(config, getSource(), log, metrics, snapshot);
+		try {
+			listener.updated(graph, metrics);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		return graph;
+	}
+
+	/**
+	 * the pathways of the tree in the same order as
+	 * {@link PathwaySource#open(File)}, with the checksums of
+	 * unchanged files taken from earlier updates
+	 */
+	private PathwaySource getSource() throws IOException {
+		checkDirectory();
+		final Map<String, Stamp> current = new HashMap<String, Stamp>();
+		PathwaySource source = PathwaySource.open(directory, new PathwaySource.Checksums() {
+			public String get(File file) throws IOException {
+				String path = file.getAbsolutePath();
+				Stamp stamp = stamps.get(path);
+				if(stamp == null || stamp.length != file.length() || stamp.modified != file.lastModified()) {
+					stamp = new Stamp(file.length(), file.lastModified(), Snapshot.checksum(file));
+				}
+				current.put(path, stamp);
+				return stamp.checksum;
+			}
+		});
+		stamps = current;
+		return source;
+	}
+
+	private void checkDirectory() throws IOException {
+		if(!directory.isDirectory()) {
+			throw new IOException("Only directories can be watched, " + directory.getAbsolutePath() + " is not a directory");
+		}
+	}
+
+	/**
+	 * merges the directory and then updates the network on every
+	 * change until the thread is interrupted or {@link #close()} is
+	 * called. A failed update, for example of a file that was only
+	 * partly written, is reported to the log and retried with the
+	 * next change.
+	 */
+	public void watch(Writer log) throws IDMapperException, ConverterException, IOException {
+		checkDirectory();
+		watcher = FileSystems.getDefault().newWatchService();
+		register(directory.toPath());
+		update(log);
+		log.flush();
+		try {
+			while(true) {
+				Set<String> changed = new HashSet<String>();
+				// wait for the first change, then until the directory is quiet
+				collect(watcher.take(), changed);
+				WatchKey key;
+				while((key = watcher.poll(debounce, TimeUnit.MILLISECONDS)) != null) {
+					collect(key, changed);
+				}
+				if(changed.isEmpty()) {
+					continue;
+				}
+				log.write("\n\n> Changed: " + changed + "\n");
+				try {
+					update(log);
+				} catch (ConverterException e) {
+					log.write("\nUpdate failed: " + e.getMessage() + "\n");
+				} catch (IOException e) {
+					log.write("\nUpdate failed: " + e.getMessage() + "\n");
+				} catch (IDMapperException e) {
+					log.write("\nUpdate failed: " + e.getMessage() + "\n");
+				} catch (RuntimeException e) {
+					log.write("\nUpdate failed: " + e + "\n");
+				}
+				log.flush();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// closed by close()
+		} finally {
+			watcher.close();
+		}
+	}
+
+	/**
+	 * watches the directory and all directories below it
+	 */
+	private void register(Path dir) throws IOException {
+		WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		directories.put(key, dir);
+		File [] list = dir.toFile().listFiles();
+		if(list != null) {
+			for(File file : list) {
+				if(file.isDirectory()) {
+					register(file.toPath());
+				}
+			}
+		}
+	}
+
+	/**
+	 * adds the .gpml files, archives and directories of the events,
+	 * file times can stay the same for quick edits, so the checksums
+	 * of the files are taken again. New directories are watched,
+	 * with the files that were created in them before.
+	 */
+	private void collect(WatchKey key, Set<String> changed) {
+		Path dir = directories.get(key);
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+				changed.add("*");
+				stamps.clear();
+				tryRegister(directory.toPath());
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			String name = directory.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+			if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && path.toFile().isDirectory()) {
+				tryRegister(path);
+				changed.add(name + "/");
+			} else if(name.endsWith(".gpml") || PathwayArchive.isArchive(path.toFile())) {
+				changed.add(name);
+				stamps.remove(path.toFile().getAbsolutePath());
+			} else if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE && directories.containsValue(path)) {
+				changed.add(name + "/");
+			}
+		}
+		if(!key.reset()) {
+			directories.remove(key);
+		}
+	}
+
+	/**
+	 * a directory can be removed again before it is registered, the
+	 * next update reads the tree as it is then
+	 */
+	private void tryRegister(Path dir) {
+		try {
+			register(dir);
+		} catch (IOException e) {
+			// the tree is read again for the update anyway
+		}
+	}
+
+	/**
+	 * stops {@link #watch(Writer)}
+	 */
+	public void close() throws IOException {
+		if(watcher != null) {
+			watcher.close();
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package org.pathvisio.merger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pathvisio.merger.mapping.CachingIDMapper;
+
+/**
+ * Time, call and element counts of the phases of one run, the
+ * mapping cache statistics and the peak heap use. Phases can be
+ * recorded from any thread, their time is the sum over all threads.
+ * The metrics are written as a JSON report and, while the run is
+ * going, as progress lines with an estimate of the time left.
+ *
+ * @author mkutmon
+ *
+ */
+public class RunMetrics {
+
+	public enum Phase {
+		PARSE("parse"),
+		MAPPING("mapping"),
+		LABELS("labels"),
+		MERGE("merge"),
+		WRITE("write"),
+		SIMILARITY("similarity"),
+		ANALYSIS("analysis"),
+		SUBNETWORK("subnetwork");
+
+		final String name;
+
+		Phase(String name) {
+			this.name = name;
+		}
+	}
+
+	private static class Counter {
+		final AtomicLong calls = new AtomicLong();
+		final AtomicLong elements = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+	}
+
+	private final long started = System.nanoTime();
+	private final Counter [] counters = new Counter[Phase.values().length];
+	private final Map<String, CachingIDMapper> caches = new LinkedHashMap<String, CachingIDMapper>();
+	private final Map<String, Object> run = new LinkedHashMap<String, Object>();
+	private final AtomicInteger done = new AtomicInteger();
+	private volatile int total = 0;
+	private ScheduledExecutorService progress;
+
+	public RunMetrics() {
+		for(int i = 0; i < counters.length; i++) {
+			counters[i] = new Counter();
+		}
+	}
+
+	/**
+	 * records one call of the phase that started at the given
+	 * System.nanoTime() and handled the given number of elements
+	 */
+	public void record(Phase phase, long start, long elements) {
+		long nanos = System.nanoTime() - start;
+		Counter counter = counters[phase.ordinal()];
+		counter.calls.incrementAndGet();
+		counter.elements.addAndGet(elements);
+		counter.nanos.addAndGet(nanos);
+		long max = counter.maxNanos.get();
+		while(nanos > max && !counter.maxNanos.compareAndSet(max, nanos)) {
+			max = counter.maxNanos.get();
+		}
+	}
+
+	public long getCalls(Phase phase) { return counters[phase.ordinal()].calls.get(); }
+	public long getElements(Phase phase) { return counters[phase.ordinal()].elements.get(); }
+	public long getNanos(Phase phase) { return counters[phase.ordinal()].nanos.get(); }
+
+	public void addCache(String name, CachingIDMapper cache) {
+		caches.put(name, cache);
+	}
+
+	/**
+	 * adds a value to the "run" section of the report
+	 */
+	public void put(String name, Object value) {
+		run.put(name, value);
+	}
+
+	/**
+	 * number of pathways the progress lines count towards
+	 */
+	public void setTotal(int total) {
+		this.total = total;
+	}
+
+	public void pathwayDone() {
+		done.incrementAndGet();
+	}
+
+	/**
+	 * prints a progress line every interval seconds until
+	 * {@link #stopProgress()} is called
+	 */
+	public void startProgress(int interval, final PrintStream out) {
+		progress = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "progress");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		progress.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				out.println(getProgress());
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	public void stopProgress() {
+		if(progress != null) {
+			progress.shutdownNow();
+			progress = null;
+		}
+	}
+
+	String getProgress() {
+		int n = done.get();
+		double seconds = (System.nanoTime() - started) / 1e9;
+		double rate = seconds > 0 ? n / seconds : 0;
+		StringBuilder line = new StringBuilder("Merged " + n + "/" + total + " pathways");
+		if(total > 0) {
+			line.append(" (" + (100 * n / total) + "%)");
+		}
+		line.append(String.format(", %.1f pathways/s", rate));
+		if(rate > 0 && total > n) {
+			line.append(", ETA " + (long)Math.ceil((total - n) / rate) + " s");
+		}
+		line.append(String.format(", heap %.0f MB", getUsedHeap() / 1048576.0));
+		return line.toString();
+	}
+
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * sum of the peak usage of all heap memory pools
+	 */
+	static long getPeakHeap() {
+		long peak = 0;
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	public void writeReport(File file) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			out.write("{\n  \"run\": {");
+			Map<String, Object> values = new LinkedHashMap<String, Object>(run);
+			values.put("wallTimeMs", (System.nanoTime() - started) / 1000000);
+			values.put("peakHeapBytes", getPeakHeap());
+			values.put("pathwaysDone", done.get());
+			writeValues(out, values, "    ");
+			out.write("\n  },\n  \"phases\": {");
+			for(Phase phase : Phase.values()) {
+				Counter counter = counters[phase.ordinal()];
+				long calls = counter.calls.get();
+				long elements = counter.elements.get();
+				double ms = counter.nanos.get() / 1e6;
+				Map<String, Object> p = new LinkedHashMap<String, Object>();
+				p.put("calls", calls);
+				p.put("elements", elements);
+				p.put("timeMs", round(ms));
+				p.put("meanCallUs", calls == 0 ? 0 : round(1000 * ms / calls));
+				p.put("maxCallUs", round(counter.maxNanos.get() / 1e3));
+				p.put("elementsPerSecond", ms == 0 ? 0 : round(1000 * elements / ms));
+				out.write(phase.ordinal() == 0 ? "\n" : ",\n");
+				out.write("    \"" + phase.name + "\": {");
+				writeValues(out, p, "      ");
+				out.write("\n    }");
+			}
+			out.write("\n  },\n  \"caches\": {");
+			boolean first = true;
+			for(String name : caches.keySet()) {
+				CachingIDMapper cache = caches.get(name);
+				Map<String, Object> c = new LinkedHashMap<String, Object>();
+				c.put("mappingHits", cache.getMappingHits());
+				c.put("mappingMisses", cache.getMappingMisses());
+				c.put("mappingHitRate", rate(cache.getMappingHits(), cache.getMappingMisses()));
+				c.put("attributeHits", cache.getAttributeHits());
+				c.put("attributeMisses", cache.getAttributeMisses());
+				c.put("attributeHitRate", rate(cache.getAttributeHits(), cache.getAttributeMisses()));
+				c.put("prefetchQueries", cache.getPrefetchQueries());
+				out.write(first ? "\n" : ",\n");
+				out.write("    ");
+				writeString(out, name);
+				out.write(": {");
+				writeValues(out, c, "      ");
+				out.write("\n    }");
+				first = false;
+			}
+			out.write("\n  }\n}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static double rate(long hits, long misses) {
+		return hits + misses == 0 ? 0 : round((double) hits / (hits + misses));
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 1000) / 1000.0;
+	}
+
+	private static void writeValues(Writer out, Map<String, Object> values, String indent) throws IOException {
+		boolean first = true;
+		for(String name : values.keySet()) {
+			Object value = values.get(name);
+			out.write(first ? "\n" : ",\n");
+			out.write(indent);
+			writeString(out, name);
+			out.write(": ");
+			if(value instanceof Number || value instanceof Boolean) {
+				out.write(value.toString());
+			} else {
+				writeString(out, String.valueOf(value));
+			}
+			first = false;
+		}
+	}
+
+	private static void writeString(Writer out, String value) throws IOException {
+		out.write('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if(c < 0x20) {
+				out.write(String.format("\\u%04x", (int)c));
+			} else {
+				out.write(c);
+			}
+		}
+		out.write('"');
+	}
+}
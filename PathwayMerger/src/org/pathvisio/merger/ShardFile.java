@@ -0,0 +1,94 @@
+package org.pathvisio.merger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The partial graph of one shard of a merge, written by
+ * {@link MergeEngine#mergeShard} and combined by
+ * {@link MergeEngine#reduce}. A shard is a consecutive range of the
+ * pathways of the source, so its nodes and edges carry the global
+ * pathway indices. The settings the graph depends on and the total
+ * number of pathways are stored along, so the reduce can check that
+ * all shards belong to the same merge and that none is missing.
+ *
+ * @author mkutmon
+ *
+ */
+class ShardFile {
+
+	static final int MAGIC = 0x504d5348;
+	static final int VERSION = 1;
+
+	String settings;
+	// first pathway and the pathway after the last one
+	int from;
+	int to;
+	int total;
+	PartialGraph graph;
+
+	ShardFile(String settings, int from, int to, int total) {
+		this.settings = settings;
+		this.from = from;
+		this.to = to;
+		this.total = total;
+	}
+
+	/**
+	 * writes to a temporary file first, so a failed shard does not
+	 * leave a file behind that looks complete
+	 */
+	void write(File file) throws IOException {
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp), 1 << 16)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(settings);
+			out.writeInt(from);
+			out.writeInt(to);
+			out.writeInt(total);
+			graph.write(out);
+		} finally {
+			out.close();
+		}
+		if(file.exists() && !file.delete()) {
+			throw new IOException("Could not replace shard " + file.getAbsolutePath());
+		}
+		if(!tmp.renameTo(file)) {
+			throw new IOException("Could not write shard " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * @param withGraph also reads the partial graph, otherwise only
+	 * the header
+	 */
+	static ShardFile read(File file, boolean withGraph) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 1 << 16)));
+		try {
+			if(in.readInt() != MAGIC) {
+				throw new IOException(file.getAbsolutePath() + " is not a shard file");
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new IOException("Shard " + file.getAbsolutePath() + " has version " + version + ", expected " + VERSION);
+			}
+			ShardFile shard = new ShardFile(in.readUTF(), in.readInt(), in.readInt(), in.readInt());
+			if(withGraph) {
+				shard.graph = PartialGraph.read(in);
+			}
+			return shard;
+		} finally {
+			in.close();
+		}
+	}
+}
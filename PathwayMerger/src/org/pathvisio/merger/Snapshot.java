@@ -0,0 +1,165 @@
+package org.pathvisio.merger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The contribution of every pathway file of the last run with
+ * the checksum of the file it was made from. Files with the
+ * same name and checksum do not have to be parsed and mapped
+ * again. The settings the contributions depend on (network type,
+ * mapping databases) are stored along, a snapshot made with other
+ * settings is not used.
+ *
+ * @author mkutmon
+ *
+ */
+class Snapshot implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	// changes whenever the builder makes other contributions from the same file
+	static final int CONTRIBUTIONS = 3;
+
+	private String settings;
+	private Map<String, String> checksums = new HashMap<String, String>();
+	private Map<String, Contribution> contributions = new HashMap<String, Contribution>();
+
+	Snapshot(String settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * the contribution made from the file, if its checksum is
+	 * still the same, or null
+	 */
+	Contribution get(String file, String checksum) {
+		if(checksum.equals(checksums.get(file))) {
+			return contributions.get(file);
+		}
+		return null;
+	}
+
+	void put(String file, String checksum, Contribution contribution) {
+		checksums.put(file, checksum);
+		contributions.put(file, contribution);
+	}
+
+	/**
+	 * this snapshot if it was made with the settings, otherwise null
+	 */
+	Snapshot reuse(String settings) {
+		return settings.equals(this.settings) ? this : null;
+	}
+
+	/**
+	 * takes over the content of the other snapshot, for snapshots
+	 * that are kept in memory between runs
+	 */
+	void replace(Snapshot other) {
+		settings = other.settings;
+		checksums = other.checksums;
+		contributions = other.contributions;
+	}
+
+	boolean contains(String file) {
+		return checksums.containsKey(file);
+	}
+
+	Iterable<String> getFiles() {
+		return checksums.keySet();
+	}
+
+	int size() {
+		return checksums.size();
+	}
+
+	/**
+	 * reads the snapshot from the file, returns null if it does not
+	 * exist, cannot be read or was made with other settings
+	 */
+	static Snapshot read(File file, String settings) {
+		if(!file.exists()) {
+			return null;
+		}
+		try {
+			ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+			try {
+				Snapshot snapshot = (Snapshot) in.readObject();
+				return settings.equals(snapshot.settings) ? snapshot : null;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (ClassCastException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * writes to a temporary file first, so an interrupted run does
+	 * not leave a broken snapshot behind
+	 */
+	void write(File file) throws IOException {
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))));
+		try {
+			out.writeObject(this);
+		} finally {
+			out.close();
+		}
+		if(file.exists() && !file.delete()) {
+			throw new IOException("Could not replace snapshot " + file.getAbsolutePath());
+		}
+		if(!tmp.renameTo(file)) {
+			throw new IOException("Could not write snapshot " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * MD5 checksum of the file content as hex string
+	 */
+	static String checksum(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			byte [] buffer = new byte[1 << 16];
+			int n;
+			while((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	static String toHex(byte [] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for(byte b : bytes) {
+			hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,75 @@
+package org.pathvisio.merger.graph;
+
+import java.util.Arrays;
+
+/**
+ * Undirected adjacency of a graph in compressed sparse row form:
+ * the neighbours of node i are neighbors[offsets[i]] up to
+ * neighbors[offsets[i + 1]], sorted by node index and without
+ * duplicates. Edges in both directions and edges with the same ends
+ * count once, self loops are left out. Nodes are the dense node
+ * indices of the graph.
+ *
+ * @author mkutmon
+ *
+ */
+public class Adjacency {
+
+	final int [] offsets;
+	final int [] neighbors;
+
+	public Adjacency(Graph graph) {
+		int n = graph.getNodes().size();
+		int [] counts = new int[n + 1];
+		for(Edge e : graph.getEdges()) {
+			int s = e.getSource().getIndex();
+			int t = e.getTarget().getIndex();
+			if(s != t) {
+				counts[s + 1]++;
+				counts[t + 1]++;
+			}
+		}
+		for(int i = 0; i < n; i++) {
+			counts[i + 1] += counts[i];
+		}
+		int [] all = new int[counts[n]];
+		int [] fill = Arrays.copyOf(counts, n);
+		for(Edge e : graph.getEdges()) {
+			int s = e.getSource().getIndex();
+			int t = e.getTarget().getIndex();
+			if(s != t) {
+				all[fill[s]++] = t;
+				all[fill[t]++] = s;
+			}
+		}
+		// sort every row and drop repeated neighbours in place
+		offsets = new int[n + 1];
+		int size = 0;
+		for(int i = 0; i < n; i++) {
+			Arrays.sort(all, counts[i], counts[i + 1]);
+			offsets[i] = size;
+			for(int k = counts[i]; k < counts[i + 1]; k++) {
+				if(size == offsets[i] || all[size - 1] != all[k]) {
+					all[size++] = all[k];
+				}
+			}
+		}
+		offsets[n] = size;
+		neighbors = Arrays.copyOf(all, size);
+	}
+
+	public int getNodeCount() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * number of distinct neighbours
+	 */
+	public int getDegree(int node) {
+		return offsets[node + 1] - offsets[node];
+	}
+
+	public int [] getNeighbors(int node) {
+		return Arrays.copyOfRange(neighbors, offsets[node], offsets[node + 1]);
+	}
+}
@@ -1,39 +1,142 @@
 package org.pathvisio.merger.graph;
 
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * 
+ * The attributes every merged node and edge has are stored in
+ * fixed fields, pathway membership as a {@link PathwaySet}.
+ * Any other attribute, a string or a number, goes into a map
+ * that is only created when it is needed.
+ *
  * @author mkutmon
  * adapted from Thomas Kelder
  */
 public class AttributeHolder {
-	Map<String, Object> attributes = new HashMap<String, Object>();
+	public static final String UNIFIED_ID = "UnifiedId";
+	public static final String TYPE = "Type";
+	public static final String LABEL = "Label";
+	public static final String GENE_ID = "GeneId";
+	public static final String PATHWAYS = "pathways";
+	public static final String PATHWAY_COUNT = "pathwayCount";
+
+	private String unifiedId;
+	private String type;
+	private String label;
+	private String geneId;
+	private PathwaySet pathways;
+	private boolean countPathways;
+	private Map<String, Object> attributes;
 
 	public void setAttribute(String name, String value) {
+		if(name.equals(UNIFIED_ID)) unifiedId = value;
+		else if(name.equals(TYPE)) type = value == null ? null : value.intern();
+		else if(name.equals(LABEL)) label = value;
+		else if(name.equals(GENE_ID)) geneId = value;
+		else if(name.equals(PATHWAYS)) setPathways(value);
+		else if(name.equals(PATHWAY_COUNT)) throw new IllegalArgumentException(PATHWAY_COUNT + " is taken from the pathways, use setCountPathways");
+		else put(name, value);
+	}
+
+	/**
+	 * a numeric attribute, written as a number by the writers
+	 */
+	public void setAttribute(String name, Number value) {
+		if(isFixed(name)) {
+			throw new IllegalArgumentException("Attribute " + name + " can not be set to a number");
+		}
+		put(name, value);
+	}
+
+	private void put(String name, Object value) {
+		if(attributes == null) attributes = new HashMap<String, Object>();
 		attributes.put(name, value);
 	}
 
+	private static boolean isFixed(String name) {
+		return name.equals(UNIFIED_ID) || name.equals(TYPE) || name.equals(LABEL) || name.equals(GENE_ID) ||
+				name.equals(PATHWAYS) || name.equals(PATHWAY_COUNT);
+	}
+
 	public Object getAttribute(String name) {
-		return attributes.get(name); 
+		if(name.equals(UNIFIED_ID)) return unifiedId;
+		if(name.equals(TYPE)) return type;
+		if(name.equals(LABEL)) return label;
+		if(name.equals(GENE_ID)) return geneId;
+		if(name.equals(PATHWAYS)) return pathways == null || pathways.isEmpty() ? null : pathways.toString();
+		if(name.equals(PATHWAY_COUNT)) return countPathways ? Integer.valueOf(getPathwayCount()) : null;
+		return attributes == null ? null : attributes.get(name);
 	}
 
+	/**
+	 * names of the attributes that are set; the fixed attributes
+	 * come first, in the order the XGMML output always had
+	 */
 	public Set<String> getAttributeNames() {
-		return attributes.keySet();
+		Set<String> names = new LinkedHashSet<String>();
+		if(unifiedId != null) names.add(UNIFIED_ID);
+		if(type != null) names.add(TYPE);
+		if(label != null) names.add(LABEL);
+		if(geneId != null) names.add(GENE_ID);
+		if(pathways != null && !pathways.isEmpty()) names.add(PATHWAYS);
+		if(countPathways) names.add(PATHWAY_COUNT);
+		if(attributes != null) names.addAll(attributes.keySet());
+		return names;
 	}
 
 	public void appendAttribute(String name, String value) {
 		appendAttribute(name, value, "; ");
 	}
-	
+
 	public void appendAttribute(String name, String value, String sep) {
-		String curr = attributes.get(name) == null ? "" : attributes.get(name).toString();
+		Object o = getAttribute(name);
+		String curr = o == null ? "" : o.toString();
 		if("".equals(curr)) curr = value;
+		else if(curr.equals(value)) return;
 		else if(!curr.startsWith(value) && !curr.contains(sep + value)) {
 			curr += sep + value;
 		}
-		attributes.put(name, curr);
+		setAttribute(name, curr);
+	}
+
+	/**
+	 * @return true if the index was not yet in the membership
+	 */
+	public boolean addPathway(int index) {
+		if(pathways == null) pathways = new PathwaySet();
+		return pathways.add(index);
+	}
+
+	public PathwaySet getPathways() {
+		if(pathways == null) pathways = new PathwaySet();
+		return pathways;
+	}
+
+	public int getPathwayCount() {
+		return pathways == null ? 0 : pathways.size();
+	}
+
+	/**
+	 * also report the number of pathways as "pathwayCount"
+	 */
+	public void setCountPathways(boolean countPathways) {
+		this.countPathways = countPathways;
+	}
+
+	public boolean isCountPathways() {
+		return countPathways;
+	}
+
+	private void setPathways(String value) {
+		pathways = new PathwaySet();
+		if(value != null) {
+			for(String index : value.split("\\|")) {
+				if(index.trim().length() > 0) {
+					pathways.add(Integer.parseInt(index.trim()));
+				}
+			}
+		}
 	}
 }
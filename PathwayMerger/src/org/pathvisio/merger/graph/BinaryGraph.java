@@ -0,0 +1,142 @@
+package org.pathvisio.merger.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read only view on a graph written by {@link BinaryGraphWriter}.
+ * The file is memory mapped, values are only decoded when they
+ * are asked for.
+ *
+ * @author mkutmon
+ */
+public class BinaryGraph {
+	private ByteBuffer buffer;
+	private int nodeCount;
+	private int edgeCount;
+	private List<String> graphAttributes;
+	private List<String> graphValues;
+	private List<String> nodeColumns;
+	private List<String> edgeColumns;
+	private int [] nodeColumnStart;
+	private int [] edgeColumnStart;
+	private int edgeListStart;
+
+	public BinaryGraph(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if(buffer.getInt(0) != BinaryGraphWriter.MAGIC) {
+			throw new IOException("Not a binary graph file");
+		}
+		if(buffer.getInt(4) != BinaryGraphWriter.VERSION) {
+			throw new IOException("Unsupported binary graph version " + buffer.getInt(4));
+		}
+		nodeCount = buffer.getInt(8);
+		edgeCount = buffer.getInt(12);
+		int pos = 28;
+		graphAttributes = readColumn(pos, buffer.getInt(16));
+		pos = skipColumn(pos, buffer.getInt(16));
+		graphValues = readColumn(pos, buffer.getInt(16));
+		pos = skipColumn(pos, buffer.getInt(16));
+		nodeColumns = readColumn(pos, buffer.getInt(20));
+		pos = skipColumn(pos, buffer.getInt(20));
+		edgeColumns = readColumn(pos, buffer.getInt(24));
+		pos = skipColumn(pos, buffer.getInt(24));
+		nodeColumnStart = new int[nodeColumns.size()];
+		for(int i = 0; i < nodeColumnStart.length; i++) {
+			nodeColumnStart[i] = pos;
+			pos = skipColumn(pos, nodeCount);
+		}
+		edgeListStart = pos;
+		pos += 8 * edgeCount;
+		edgeColumnStart = new int[edgeColumns.size()];
+		for(int i = 0; i < edgeColumnStart.length; i++) {
+			edgeColumnStart[i] = pos;
+			pos = skipColumn(pos, edgeCount);
+		}
+	}
+
+	public static BinaryGraph open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new BinaryGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	public int getNodeCount() { return nodeCount; }
+	public int getEdgeCount() { return edgeCount; }
+	public List<String> getGraphAttributes() { return Collections.unmodifiableList(graphAttributes); }
+	public List<String> getNodeColumns() { return Collections.unmodifiableList(nodeColumns); }
+	public List<String> getEdgeColumns() { return Collections.unmodifiableList(edgeColumns); }
+
+	public String getNodeId(int node) {
+		return getString(nodeColumnStart[0], nodeCount, node);
+	}
+
+	public int getSource(int edge) {
+		return buffer.getInt(edgeListStart + 8 * edge);
+	}
+
+	public int getTarget(int edge) {
+		return buffer.getInt(edgeListStart + 8 * edge + 4);
+	}
+
+	/**
+	 * @return the value of an attribute of the graph, such as the
+	 * name of a pathway, null if the graph does not have it
+	 */
+	public String getGraphAttribute(String name) {
+		int i = graphAttributes.indexOf(name);
+		return i < 0 ? null : graphValues.get(i);
+	}
+
+	/**
+	 * @return the value, "" if the node does not have the
+	 * attribute and null for an unknown column
+	 */
+	public String getNodeAttribute(String column, int node) {
+		int i = nodeColumns.indexOf(column);
+		return i < 0 ? null : getString(nodeColumnStart[i], nodeCount, node);
+	}
+
+	public String getEdgeAttribute(String column, int edge) {
+		int i = edgeColumns.indexOf(column);
+		return i < 0 ? null : getString(edgeColumnStart[i], edgeCount, edge);
+	}
+
+	private List<String> readColumn(int pos, int count) {
+		List<String> values = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++) {
+			values.add(getString(pos, count, i));
+		}
+		return values;
+	}
+
+	private int skipColumn(int pos, int count) {
+		int length = buffer.getInt(pos + 4 * count);
+		return pos + 4 * (count + 1) + (length + 3) / 4 * 4;
+	}
+
+	private String getString(int column, int count, int i) {
+		int start = buffer.getInt(column + 4 * i);
+		int end = buffer.getInt(column + 4 * i + 4);
+		byte [] bytes = new byte[end - start];
+		ByteBuffer b = buffer.duplicate();
+		b.position(column + 4 * (count + 1) + start);
+		b.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
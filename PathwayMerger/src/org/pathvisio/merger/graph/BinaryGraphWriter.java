@@ -0,0 +1,130 @@
+package org.pathvisio.merger.graph;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes a graph as a node table and an edge list that can be
+ * memory mapped, see {@link BinaryGraph}. All numbers are big
+ * endian ints, every section starts at a multiple of four bytes:
+ *
+ * <pre>
+ * magic "PMGB", version, node count, edge count,
+ * graph attribute count, node column count, edge column count
+ * string column: graph attribute names
+ * string column: graph attribute values
+ * string column: node column names, the first is "id"
+ * string column: edge column names
+ * string column per node column, one value per node
+ * edge list: source and target node index per edge
+ * string column per edge column, one value per edge
+ * </pre>
+ *
+ * A string column of n values is n + 1 byte offsets followed by
+ * the UTF-8 bytes of the values, padded to a multiple of four.
+ * Missing values are empty strings. The file has to stay below
+ * 2 GB, as all positions are ints.
+ *
+ * @author mkutmon
+ */
+public class BinaryGraphWriter implements GraphWriter {
+	public static final int MAGIC = 0x504D4742;
+	public static final int VERSION = 2;
+	public static final String ID = "id";
+
+	public void write(Graph graph, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		try {
+			List<String> nodeColumns = getColumns(graph.getNodes());
+			List<String> edgeColumns = getColumns(graph.getEdges());
+			nodeColumns.add(0, ID);
+			List<String> graphAttributes = new ArrayList<String>(graph.getAttributeNames());
+			List<String> graphValues = new ArrayList<String>(graphAttributes.size());
+			for(String name : graphAttributes) {
+				graphValues.add(getValue(graph, name));
+			}
+
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(graph.getNodes().size());
+			data.writeInt(graph.getEdges().size());
+			data.writeInt(graphAttributes.size());
+			data.writeInt(nodeColumns.size());
+			data.writeInt(edgeColumns.size());
+			writeColumn(data, graphAttributes);
+			writeColumn(data, graphValues);
+			writeColumn(data, nodeColumns);
+			writeColumn(data, edgeColumns);
+
+			for(int i = 0; i < nodeColumns.size(); i++) {
+				List<String> values = new ArrayList<String>(graph.getNodes().size());
+				for(Node n : graph.getNodes()) {
+					values.add(i == 0 ? n.getId() : getValue(n, nodeColumns.get(i)));
+				}
+				writeColumn(data, values);
+			}
+			for(Edge edge : graph.getEdges()) {
+				data.writeInt(edge.getSource().getIndex());
+				data.writeInt(edge.getTarget().getIndex());
+			}
+			for(String column : edgeColumns) {
+				List<String> values = new ArrayList<String>(graph.getEdges().size());
+				for(Edge edge : graph.getEdges()) {
+					values.add(getValue(edge, column));
+				}
+				writeColumn(data, values);
+			}
+		} finally {
+			data.close();
+		}
+	}
+
+	private static String getValue(AttributeHolder attr, String column) {
+		Object o = attr.getAttribute(column);
+		return o == null ? "" : o.toString();
+	}
+
+	private static List<String> getColumns(Collection<? extends AttributeHolder> elements) {
+		Set<String> columns = new LinkedHashSet<String>();
+		for(AttributeHolder e : elements) {
+			columns.addAll(e.getAttributeNames());
+		}
+		columns.remove(ID);
+		return new ArrayList<String>(columns);
+	}
+
+	private static void writeColumn(DataOutputStream data, List<String> values) throws IOException {
+		byte [][] bytes = new byte[values.size()][];
+		long length = 0;
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = values.get(i).getBytes("UTF-8");
+			length += bytes[i].length;
+		}
+		// the end of the column is read as an int as well
+		checkOffset(data.size() + 4L * (bytes.length + 1) + length + 3);
+		int offset = 0;
+		data.writeInt(offset);
+		for(byte [] b : bytes) {
+			offset += b.length;
+			data.writeInt(offset);
+		}
+		for(byte [] b : bytes) {
+			data.write(b);
+		}
+		for(int i = offset; i % 4 != 0; i++) {
+			data.write(0);
+		}
+	}
+
+	private static void checkOffset(long offset) throws IOException {
+		if(offset > Integer.MAX_VALUE) {
+			throw new IOException("Binary graph would be larger than 2 GB");
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package org.pathvisio.merger.graph;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes a graph in the Cytoscape.js JSON format, with the
+ * attributes of the graph, the nodes and the edges as their
+ * "data" objects.
+ *
+ * @author mkutmon
+ */
+public class CytoscapeJSONWriter implements GraphWriter {
+
+	private boolean indent;
+
+	public CytoscapeJSONWriter(boolean indent) {
+		this.indent = indent;
+	}
+
+	public void write(Graph graph, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), GraphWriters.BUFFER_SIZE);
+		try {
+			writer.write("{\"data\":");
+			writeData(writer, graph, null, null, null);
+			writer.write(",");
+			newLine(writer, 1);
+			writer.write("\"elements\":{");
+			newLine(writer, 1);
+			writer.write("\"nodes\":[");
+			boolean first = true;
+			for(Node n : graph.getNodes()) {
+				if(!first) writer.write(',');
+				first = false;
+				newLine(writer, 2);
+				writer.write("{\"data\":");
+				writeData(writer, n, n.getId(), null, null);
+				writer.write('}');
+			}
+			newLine(writer, 1);
+			writer.write("],");
+			newLine(writer, 1);
+			writer.write("\"edges\":[");
+			first = true;
+			for(Edge edge : graph.getEdges()) {
+				if(!first) writer.write(',');
+				first = false;
+				newLine(writer, 2);
+				writer.write("{\"data\":");
+				writeData(writer, edge, edge.getId(), edge.getSource().getId(), edge.getTarget().getId());
+				writer.write('}');
+			}
+			newLine(writer, 1);
+			writer.write("]}}\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void writeData(Writer writer, AttributeHolder attr, String id, String source, String target) throws IOException {
+		writer.write('{');
+		boolean first = true;
+		if(id != null) {
+			first = writeField(writer, "id", id, first);
+			if(attr.getAttribute("name") == null) {
+				first = writeField(writer, "name", id, first);
+			}
+		}
+		if(source != null) {
+			first = writeField(writer, "source", source, first);
+			first = writeField(writer, "target", target, first);
+		}
+		for(String name : attr.getAttributeNames()) {
+			Object o = attr.getAttribute(name);
+			if(o == null || name.equals("id") || name.equals("source") || name.equals("target")) continue;
+			if(!first) writer.write(',');
+			first = false;
+			writeString(writer, name);
+			writer.write(':');
+			if(o instanceof Number) {
+				writer.write(o.toString());
+			} else {
+				writeString(writer, o.toString());
+			}
+		}
+		writer.write('}');
+	}
+
+	private static boolean writeField(Writer writer, String name, String value, boolean first) throws IOException {
+		if(!first) writer.write(',');
+		writeString(writer, name);
+		writer.write(':');
+		writeString(writer, value);
+		return false;
+	}
+
+	private void newLine(Writer writer, int depth) throws IOException {
+		if(indent) {
+			writer.write('\n');
+			for(int i = 0; i < depth; i++) {
+				writer.write("  ");
+			}
+		}
+	}
+
+	static void writeString(Writer writer, String value) throws IOException {
+		writer.write('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch(c) {
+			case '"': writer.write("\\\""); break;
+			case '\\': writer.write("\\\\"); break;
+			case '\n': writer.write("\\n"); break;
+			case '\r': writer.write("\\r"); break;
+			case '\t': writer.write("\\t"); break;
+			default:
+				if(c < 0x20) {
+					writer.write(String.format("\\u%04x", (int)c));
+				} else {
+					writer.write(c);
+				}
+			}
+		}
+		writer.write('"');
+	}
+}
@@ -16,6 +16,14 @@ public class Edge extends AttributeHolder {
 		this.target = target;
 	}
 	
+	/**
+	 * edge without an explicit id, its id is
+	 * "source - target"
+	 */
+	public Edge(Node source, Node target) {
+		this(null, source, target);
+	}
+	
 	public Node getSource() {
 		return source;
 	}
@@ -25,6 +33,9 @@ public class Edge extends AttributeHolder {
 	}
 		
 	public String getId() {
+		if(id == null) {
+			return source.getId() + " - " + target.getId();
+		}
 		return id;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package org.pathvisio.merger.graph;
+
+/**
+ * Open addressing hash table from a (source, target) pair of
+ * node indices, packed into one long, to the edge between them.
+ * Looking up an edge does not allocate.
+ *
+ * @author mkutmon
+ */
+class EdgeTable {
+	private long [] keys;
+	private Edge [] values;
+	private int size = 0;
+
+	EdgeTable() {
+		keys = new long[64];
+		values = new Edge[64];
+	}
+
+	static long key(Node source, Node target) {
+		return ((long)source.getIndex() << 32) | (target.getIndex() & 0xffffffffL);
+	}
+
+	Edge get(long key) {
+		int mask = keys.length - 1;
+		for(int i = slot(key, mask); values[i] != null; i = (i + 1) & mask) {
+			if(keys[i] == key) return values[i];
+		}
+		return null;
+	}
+
+	void put(long key, Edge edge) {
+		if(2 * (size + 1) > keys.length) {
+			resize();
+		}
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while(values[i] != null) {
+			if(keys[i] == key) {
+				values[i] = edge;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = edge;
+		size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private static int slot(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32)) & mask;
+	}
+
+	private void resize() {
+		long [] oldKeys = keys;
+		Edge [] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Edge[oldValues.length * 2];
+		int mask = keys.length - 1;
+		for(int j = 0; j < oldKeys.length; j++) {
+			if(oldValues[j] != null) {
+				int i = slot(oldKeys[j], mask);
+				while(values[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+}
@@ -1,10 +1,17 @@
 package org.pathvisio.merger.graph;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
+ * Nodes get a dense index in the order they are added. Edges
+ * without an explicit id are keyed by their source and target
+ * index, their string id is only built when it is asked for.
+ *
  * @author mkutmon
  * adapted from Thomas Kelder
  */
@@ -12,22 +19,42 @@ public class Graph extends AttributeHolder {
 	private String title = "";
 	
 	private Map<String, Node> nodes = new HashMap<String, Node>();
-	private Map<String, Edge> edges = new HashMap<String, Edge>();
+	private List<Node> nodeList = new ArrayList<Node>();
+	private Map<String, Edge> namedEdges = new HashMap<String, Edge>();
+	private EdgeTable edgeTable = new EdgeTable();
+	private List<Edge> edgeList = new ArrayList<Edge>();
 
 	public Node addNode(String id) {
 		Node n = nodes.get(id);
 		if(n == null) { 
-			n = new Node(id);
+			n = new Node(id, nodeList.size());
 			nodes.put(id, n);
+			nodeList.add(n);
 		}
 		return n;
 	}
 	
 	public Edge addEdge(String id, Node source, Node target) {
-		Edge e = edges.get(id);
+		Edge e = namedEdges.get(id);
 		if(e == null) {
 			e = new Edge(id, source, target);
-			edges.put(id, e);
+			namedEdges.put(id, e);
+			edgeList.add(e);
+		}
+		return e;
+	}
+	
+	/**
+	 * adds the edge from source to target unless it already exists,
+	 * both nodes have to belong to this graph
+	 */
+	public Edge addEdge(Node source, Node target) {
+		long key = EdgeTable.key(source, target);
+		Edge e = edgeTable.get(key);
+		if(e == null) {
+			e = new Edge(source, target);
+			edgeTable.put(key, e);
+			edgeList.add(e);
 		}
 		return e;
 	}
@@ -38,8 +65,18 @@ public class Graph extends AttributeHolder {
 	public String getTitle() { return title; }
 	
 	public Node getNode(String id) { return nodes.get(id); }
-	public Edge getEdge(String id) { return edges.get(id); }
+	public Node getNode(int index) { return nodeList.get(index); }
+	
+	/**
+	 * edge added with an explicit id
+	 */
+	public Edge getEdge(String id) { return namedEdges.get(id); }
+	
+	/**
+	 * edge added from source to target without an explicit id
+	 */
+	public Edge getEdge(Node source, Node target) { return edgeTable.get(EdgeTable.key(source, target)); }
 	
-	public Collection<Node> getNodes() { return nodes.values(); }
-	public Collection<Edge> getEdges() { return edges.values(); }
+	public Collection<Node> getNodes() { return Collections.unmodifiableList(nodeList); }
+	public Collection<Edge> getEdges() { return Collections.unmodifiableList(edgeList); }
 }
@@ -0,0 +1,149 @@
+package org.pathvisio.merger.graph;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a graph as GraphML. The attribute keys and their types
+ * are collected in a first pass over the nodes and edges, the
+ * elements are streamed in a second one. A key is an int, long or
+ * double if any element holds a number of that kind under its
+ * name, and a string otherwise.
+ *
+ * @author mkutmon
+ */
+public class GraphMLWriter implements GraphWriter {
+	static final String NS = "http://graphml.graphdrawing.org/xmlns";
+
+	// from narrow to wide, a key takes the widest type of its values
+	private static final String [] TYPES = { "string", "int", "long", "double" };
+
+	private boolean indent;
+
+	public GraphMLWriter(boolean indent) {
+		this.indent = indent;
+	}
+
+	public void write(Graph graph, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), GraphWriters.BUFFER_SIZE);
+		try {
+			Map<String, Integer> graphTypes = getTypes(Collections.singleton(graph));
+			Map<String, Integer> nodeTypes = getTypes(graph.getNodes());
+			Map<String, Integer> edgeTypes = getTypes(graph.getEdges());
+			List<String> graphKeys = new ArrayList<String>(graphTypes.keySet());
+			List<String> nodeKeys = new ArrayList<String>(nodeTypes.keySet());
+			List<String> edgeKeys = new ArrayList<String>(edgeTypes.keySet());
+
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<graphml");
+			XGMMLWriter.writeAttribute(writer, "xmlns", NS);
+			writer.write('>');
+			writeKeys(writer, "graph", "g", graphKeys, graphTypes);
+			writeKeys(writer, "node", "n", nodeKeys, nodeTypes);
+			writeKeys(writer, "edge", "e", edgeKeys, edgeTypes);
+
+			XGMMLWriter.newLine(writer, 1, indent);
+			writer.write("<graph edgedefault=\"directed\"");
+			XGMMLWriter.writeAttribute(writer, "id", graph.getTitle());
+			writer.write('>');
+			writeData(writer, graph, "g", graphKeys, 2);
+
+			for(Node n : graph.getNodes()) {
+				XGMMLWriter.newLine(writer, 2, indent);
+				writer.write("<node");
+				XGMMLWriter.writeAttribute(writer, "id", n.getId());
+				writer.write('>');
+				if(writeData(writer, n, "n", nodeKeys, 3)) {
+					XGMMLWriter.newLine(writer, 2, indent);
+				}
+				writer.write("</node>");
+			}
+
+			for(Edge edge : graph.getEdges()) {
+				XGMMLWriter.newLine(writer, 2, indent);
+				writer.write("<edge");
+				XGMMLWriter.writeAttribute(writer, "id", edge.getId());
+				XGMMLWriter.writeAttribute(writer, "source", edge.getSource().getId());
+				XGMMLWriter.writeAttribute(writer, "target", edge.getTarget().getId());
+				writer.write('>');
+				if(writeData(writer, edge, "e", edgeKeys, 3)) {
+					XGMMLWriter.newLine(writer, 2, indent);
+				}
+				writer.write("</edge>");
+			}
+			XGMMLWriter.newLine(writer, 1, indent);
+			writer.write("</graph>");
+			XGMMLWriter.newLine(writer, 0, indent);
+			writer.write("</graphml>\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * @return the attribute names of the elements in the order they
+	 * are first seen, with the index of their type in {@link #TYPES}
+	 */
+	private static Map<String, Integer> getTypes(Collection<? extends AttributeHolder> elements) {
+		Map<String, Integer> types = new LinkedHashMap<String, Integer>();
+		for(AttributeHolder e : elements) {
+			for(String name : e.getAttributeNames()) {
+				Integer type = types.get(name);
+				int t = getType(name, e.getAttribute(name));
+				if(type == null || t > type) {
+					types.put(name, t);
+				}
+			}
+		}
+		return types;
+	}
+
+	private static int getType(String name, Object o) {
+		if(name.equals("context+ score") || name.equals("score") || name.equals("pvalue")) return 3;
+		if(o instanceof Integer || o instanceof Short || o instanceof Byte) return 1;
+		if(o instanceof Long) return 2;
+		if(o instanceof Number) return 3;
+		return 0;
+	}
+
+	private void writeKeys(Writer writer, String domain, String prefix, List<String> keys, Map<String, Integer> types) throws IOException {
+		for(int i = 0; i < keys.size(); i++) {
+			String name = keys.get(i);
+			XGMMLWriter.newLine(writer, 1, indent);
+			writer.write("<key");
+			XGMMLWriter.writeAttribute(writer, "id", prefix + i);
+			XGMMLWriter.writeAttribute(writer, "for", domain);
+			XGMMLWriter.writeAttribute(writer, "attr.name", name);
+			XGMMLWriter.writeAttribute(writer, "attr.type", TYPES[types.get(name)]);
+			writer.write("/>");
+		}
+	}
+
+	/**
+	 * @return true if any data element was written
+	 */
+	private boolean writeData(Writer writer, AttributeHolder attr, String prefix, List<String> keys, int depth) throws IOException {
+		boolean data = false;
+		for(int i = 0; i < keys.size(); i++) {
+			Object o = attr.getAttribute(keys.get(i));
+			if(o == null) continue;
+			XGMMLWriter.newLine(writer, depth, indent);
+			writer.write("<data key=\"");
+			writer.write(prefix);
+			writer.write(Integer.toString(i));
+			writer.write("\">");
+			XGMMLWriter.writeEscaped(writer, o.toString());
+			writer.write("</data>");
+			data = true;
+		}
+		return data;
+	}
+}
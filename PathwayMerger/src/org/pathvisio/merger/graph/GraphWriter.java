@@ -0,0 +1,16 @@
+package org.pathvisio.merger.graph;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a graph to a stream in one output format.
+ * Implementations stream the nodes and edges and close
+ * the stream when they are done.
+ *
+ * @author mkutmon
+ */
+public interface GraphWriter {
+
+	public void write(Graph graph, OutputStream out) throws IOException;
+}
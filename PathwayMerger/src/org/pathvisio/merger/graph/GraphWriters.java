@@ -0,0 +1,50 @@
+package org.pathvisio.merger.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Looks up the writer for an output format and opens
+ * output files, files ending in ".gz" are gzip compressed.
+ *
+ * @author mkutmon
+ */
+public class GraphWriters {
+
+	static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * @param format one of xgmml, graphml, sif, json (Cytoscape.js)
+	 * or binary
+	 */
+	public static GraphWriter get(String format, boolean indent) {
+		if(format == null || format.equalsIgnoreCase("xgmml")) {
+			return new XGMMLWriter(indent);
+		} else if(format.equalsIgnoreCase("graphml")) {
+			return new GraphMLWriter(indent);
+		} else if(format.equalsIgnoreCase("sif")) {
+			return new SIFWriter();
+		} else if(format.equalsIgnoreCase("json")) {
+			return new CytoscapeJSONWriter(indent);
+		} else if(format.equalsIgnoreCase("binary")) {
+			return new BinaryGraphWriter();
+		}
+		throw new IllegalArgumentException("Unknown output format " + format);
+	}
+
+	public static OutputStream open(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		if(file.getName().endsWith(".gz")) {
+			return new GZIPOutputStream(out, BUFFER_SIZE);
+		}
+		return new BufferedOutputStream(out, BUFFER_SIZE);
+	}
+
+	public static void write(GraphWriter writer, Graph graph, File file) throws IOException {
+		writer.write(graph, open(file));
+	}
+}
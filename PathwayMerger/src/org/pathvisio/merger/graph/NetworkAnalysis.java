@@ -0,0 +1,383 @@
+package org.pathvisio.merger.graph;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Basic statistics of a merged network: connected components,
+ * the distribution of the node degrees and pathway counts, and
+ * the nodes with the highest degree. Everything is computed on the
+ * {@link Adjacency} of the graph, so edge direction is ignored and
+ * the degree is the number of distinct neighbours.
+ *
+ * Components are found with a union-find whose roots are always
+ * the smallest node index of their set, so worker threads can link
+ * the nodes of their block in any order and still end up with the
+ * same result. Components are numbered by size, the largest is 0,
+ * equal sizes by their first node.
+ *
+ * @author mkutmon
+ *
+ */
+public class NetworkAnalysis {
+
+	public static final String DEGREE = "degree";
+	public static final String COMPONENT = "component";
+
+	// nodes handled by one task
+	private static final int NODES = 1 << 14;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int hubCount = 10;
+
+	private Graph graph;
+	private Adjacency adjacency;
+	private int [] components;
+	private int [] componentSizes;
+	private TreeMap<Integer, Integer> degrees;
+	private TreeMap<Integer, Integer> pathwayCounts;
+	private List<Node> hubs;
+
+	public NetworkAnalysis setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+
+	/**
+	 * number of nodes with the highest degree to report
+	 */
+	public NetworkAnalysis setHubs(int hubCount) {
+		this.hubCount = Math.max(0, hubCount);
+		return this;
+	}
+
+	public NetworkAnalysis analyze(Graph graph) throws InterruptedException, ExecutionException {
+		this.graph = graph;
+		adjacency = new Adjacency(graph);
+		final int n = adjacency.getNodeCount();
+		final AtomicIntegerArray parent = new AtomicIntegerArray(n);
+		for(int i = 0; i < n; i++) {
+			parent.set(i, i);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "analysis");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<Block>> futures = new ArrayList<Future<Block>>();
+			for(int start = 0; start < n; start += NODES) {
+				final int from = start;
+				final int to = Math.min(n, start + NODES);
+				futures.add(executor.submit(new Callable<Block>() {
+					public Block call() {
+						for(int i = from; i < to; i++) {
+							for(int k = adjacency.offsets[i]; k < adjacency.offsets[i + 1]; k++) {
+								if(adjacency.neighbors[k] > i) {
+									union(parent, i, adjacency.neighbors[k]);
+								}
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Block> future : futures) {
+				future.get();
+			}
+
+			// all sets are linked, the roots are final now
+			components = new int[n];
+			futures.clear();
+			for(int start = 0; start < n; start += NODES) {
+				final int from = start;
+				final int to = Math.min(n, start + NODES);
+				futures.add(executor.submit(new Callable<Block>() {
+					public Block call() {
+						return count(parent, from, to);
+					}
+				}));
+			}
+			degrees = new TreeMap<Integer, Integer>();
+			pathwayCounts = new TreeMap<Integer, Integer>();
+			PriorityQueue<Integer> top = new PriorityQueue<Integer>(hubCount + 1, hubOrder());
+			for(Future<Block> future : futures) {
+				Block block = future.get();
+				merge(degrees, block.degrees);
+				merge(pathwayCounts, block.pathwayCounts);
+				for(int node : block.hubs) {
+					offer(top, node);
+				}
+			}
+			hubs = new ArrayList<Node>();
+			for(Integer node : top) {
+				hubs.add(graph.getNode(node));
+			}
+			Collections.sort(hubs, new Comparator<Node>() {
+				public int compare(Node a, Node b) {
+					return hubOrder().compare(b.getIndex(), a.getIndex());
+				}
+			});
+		} finally {
+			executor.shutdownNow();
+		}
+		numberComponents();
+		return this;
+	}
+
+	/**
+	 * links the sets of a and b under the smaller of both roots
+	 */
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		while(true) {
+			a = find(parent, a);
+			b = find(parent, b);
+			if(a == b) {
+				return;
+			}
+			if(a < b) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+			if(parent.compareAndSet(a, a, b)) {
+				return;
+			}
+		}
+	}
+
+	private static int find(AtomicIntegerArray parent, int x) {
+		while(true) {
+			int p = parent.get(x);
+			if(p == x) {
+				return x;
+			}
+			int grandparent = parent.get(p);
+			// path halving, losing the race only skips the shortcut
+			parent.compareAndSet(x, p, grandparent);
+			x = grandparent;
+		}
+	}
+
+	/**
+	 * roots, histograms and hubs of the nodes of one block
+	 */
+	private Block count(AtomicIntegerArray parent, int from, int to) {
+		Block block = new Block();
+		PriorityQueue<Integer> top = new PriorityQueue<Integer>(hubCount + 1, hubOrder());
+		for(int i = from; i < to; i++) {
+			components[i] = find(parent, i);
+			add(block.degrees, adjacency.getDegree(i));
+			add(block.pathwayCounts, graph.getNode(i).getPathwayCount());
+			offer(top, i);
+		}
+		block.hubs = new ArrayList<Integer>(top);
+		return block;
+	}
+
+	/**
+	 * replaces the roots in components by component numbers
+	 */
+	private void numberComponents() {
+		int n = components.length;
+		int [] sizes = new int[n];
+		List<Integer> roots = new ArrayList<Integer>();
+		for(int i = 0; i < n; i++) {
+			if(components[i] == i) {
+				roots.add(i);
+			}
+			sizes[components[i]]++;
+		}
+		final int [] rootSizes = sizes;
+		Collections.sort(roots, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if(rootSizes[a] != rootSizes[b]) {
+					return rootSizes[a] > rootSizes[b] ? -1 : 1;
+				}
+				return a.compareTo(b);
+			}
+		});
+		int [] number = new int[n];
+		componentSizes = new int[roots.size()];
+		for(int c = 0; c < roots.size(); c++) {
+			number[roots.get(c)] = c;
+			componentSizes[c] = sizes[roots.get(c)];
+		}
+		for(int i = 0; i < n; i++) {
+			components[i] = number[components[i]];
+		}
+	}
+
+	/**
+	 * orders nodes from the lowest to the highest hub rank: by
+	 * degree, then by their first appearance in the graph
+	 */
+	private Comparator<Integer> hubOrder() {
+		return new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int da = adjacency.getDegree(a);
+				int db = adjacency.getDegree(b);
+				if(da != db) {
+					return da < db ? -1 : 1;
+				}
+				return b.compareTo(a);
+			}
+		};
+	}
+
+	private void offer(PriorityQueue<Integer> top, int node) {
+		if(hubCount == 0) {
+			return;
+		}
+		top.add(node);
+		if(top.size() > hubCount) {
+			top.poll();
+		}
+	}
+
+	private static void add(Map<Integer, Integer> histogram, int value) {
+		Integer count = histogram.get(value);
+		histogram.put(value, count == null ? 1 : count + 1);
+	}
+
+	private static void merge(Map<Integer, Integer> histogram, Map<Integer, Integer> part) {
+		for(Map.Entry<Integer, Integer> entry : part.entrySet()) {
+			Integer count = histogram.get(entry.getKey());
+			histogram.put(entry.getKey(), count == null ? entry.getValue() : count + entry.getValue());
+		}
+	}
+
+	/**
+	 * sets the "degree" and "component" attribute of every node
+	 */
+	public void addAttributes() {
+		for(Node node : graph.getNodes()) {
+			node.setAttribute(DEGREE, adjacency.getDegree(node.getIndex()));
+			node.setAttribute(COMPONENT, components[node.getIndex()]);
+		}
+	}
+
+	public Adjacency getAdjacency() {
+		return adjacency;
+	}
+
+	public int getComponentCount() {
+		return componentSizes.length;
+	}
+
+	/**
+	 * number of the component of the node, 0 is the largest
+	 */
+	public int getComponent(Node node) {
+		return components[node.getIndex()];
+	}
+
+	/**
+	 * size of every component, largest first
+	 */
+	public int [] getComponentSizes() {
+		return componentSizes.clone();
+	}
+
+	/**
+	 * number of nodes for every degree
+	 */
+	public Map<Integer, Integer> getDegrees() {
+		return Collections.unmodifiableMap(degrees);
+	}
+
+	/**
+	 * number of nodes for every pathway count
+	 */
+	public Map<Integer, Integer> getPathwayCounts() {
+		return Collections.unmodifiableMap(pathwayCounts);
+	}
+
+	/**
+	 * the nodes with the highest degree, highest first
+	 */
+	public List<Node> getHubs() {
+		return Collections.unmodifiableList(hubs);
+	}
+
+	/**
+	 * writes the statistics as JSON
+	 */
+	public void writeSummary(File file) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			int edges = adjacency.neighbors.length / 2;
+			out.write("{\n");
+			out.write("  \"nodes\": " + adjacency.getNodeCount() + ",\n");
+			out.write("  \"edges\": " + graph.getEdges().size() + ",\n");
+			out.write("  \"linkedPairs\": " + edges + ",\n");
+			out.write("  \"components\": " + componentSizes.length + ",\n");
+			out.write("  \"largestComponent\": " + (componentSizes.length == 0 ? 0 : componentSizes[0]) + ",\n");
+			Integer isolated = degrees.get(0);
+			out.write("  \"isolatedNodes\": " + (isolated == null ? 0 : isolated) + ",\n");
+			TreeMap<Integer, Integer> sizes = new TreeMap<Integer, Integer>(Collections.reverseOrder());
+			for(int size : componentSizes) {
+				add(sizes, size);
+			}
+			out.write("  \"componentSizes\": ");
+			writeHistogram(out, sizes);
+			out.write(",\n  \"degrees\": ");
+			writeHistogram(out, degrees);
+			out.write(",\n  \"pathwayCounts\": ");
+			writeHistogram(out, pathwayCounts);
+			out.write(",\n  \"hubs\": [");
+			for(int i = 0; i < hubs.size(); i++) {
+				Node node = hubs.get(i);
+				Object label = node.getAttribute(AttributeHolder.LABEL);
+				out.write(i == 0 ? "\n    {" : ",\n    {");
+				out.write("\"id\": ");
+				CytoscapeJSONWriter.writeString(out, node.getId());
+				out.write(", \"label\": ");
+				CytoscapeJSONWriter.writeString(out, label == null ? "" : label.toString());
+				out.write(", \"degree\": " + adjacency.getDegree(node.getIndex()));
+				out.write(", \"pathwayCount\": " + node.getPathwayCount());
+				out.write(", \"component\": " + components[node.getIndex()] + "}");
+			}
+			out.write(hubs.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeHistogram(Writer out, Map<Integer, Integer> histogram) throws IOException {
+		out.write("{");
+		boolean first = true;
+		for(Map.Entry<Integer, Integer> entry : histogram.entrySet()) {
+			out.write(first ? "" : ", ");
+			out.write("\"" + entry.getKey() + "\": " + entry.getValue());
+			first = false;
+		}
+		out.write("}");
+	}
+
+	private static class Block {
+		final TreeMap<Integer, Integer> degrees = new TreeMap<Integer, Integer>();
+		final TreeMap<Integer, Integer> pathwayCounts = new TreeMap<Integer, Integer>();
+		List<Integer> hubs;
+	}
+}
@@ -6,16 +6,30 @@ package org.pathvisio.merger.graph;
  */
 public class Node extends AttributeHolder {
 	private String id;
+	private int index;
 	
 	public Node(String id) {
+		this(id, -1);
+	}
+	
+	Node(String id, int index) {
 		this.id = id;
+		this.index = index;
 	}
 	
 	public String getId() {
 		return id;
 	}
 	
+	/**
+	 * dense index of the node in its graph, in the order the
+	 * nodes were added
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
 	public int hashCode() {
 		return id.hashCode();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package org.pathvisio.merger.graph;
+
+import java.util.Arrays;
+
+/**
+ * Set of pathway indices a node or edge belongs to, stored as a
+ * sorted int array. Pathways are merged in index order, so adding
+ * the current pathway is an append and checking for it only looks
+ * at the last element.
+ *
+ * @author mkutmon
+ */
+public class PathwaySet {
+	private static final int [] EMPTY = new int[0];
+
+	private int [] indices = EMPTY;
+	private int size = 0;
+
+	/**
+	 * @return true if the index was not yet in the set
+	 */
+	public boolean add(int index) {
+		if(size == 0 || index > indices[size - 1]) {
+			grow();
+			indices[size++] = index;
+			return true;
+		}
+		if(index == indices[size - 1]) {
+			return false;
+		}
+		int pos = Arrays.binarySearch(indices, 0, size, index);
+		if(pos >= 0) {
+			return false;
+		}
+		pos = -pos - 1;
+		grow();
+		System.arraycopy(indices, pos, indices, pos + 1, size - pos);
+		indices[pos] = index;
+		size++;
+		return true;
+	}
+
+	public boolean contains(int index) {
+		if(size == 0) return false;
+		if(index == indices[size - 1]) return true;
+		return Arrays.binarySearch(indices, 0, size, index) >= 0;
+	}
+
+	public void addAll(PathwaySet other) {
+		for(int i = 0; i < other.size; i++) {
+			add(other.indices[i]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int get(int i) {
+		return indices[i];
+	}
+
+	private void grow() {
+		if(size == indices.length) {
+			indices = Arrays.copyOf(indices, Math.max(2, size * 2));
+		}
+	}
+
+	/**
+	 * the " | " separated form used in the XGMML output
+	 */
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < size; i++) {
+			if(i > 0) builder.append(" | ");
+			builder.append(indices[i]);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,333 @@
+package org.pathvisio.merger.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pathway to pathway similarity over shared genes, computed from an
+ * association network. The genes of every pathway are kept as a bit
+ * set over the gene nodes. Pairs that share at least one gene are
+ * found through the pathways of each gene and scored on worker
+ * threads, so pathways without common genes cost nothing.
+ *
+ * For very large collections the similarity can be estimated from
+ * MinHash signatures instead. Only pairs that agree on all hashes of
+ * at least one band of the signature are scored.
+ *
+ * The result is a network of the pathway nodes with an edge for
+ * every pair whose similarity reaches the threshold, in pathway
+ * order.
+ *
+ * @author mkutmon
+ *
+ */
+public class PathwaySimilarity {
+
+	public static final String SIMILARITY = "similarity";
+	public static final String SHARED_GENES = "sharedGenes";
+	public static final String GENE_COUNT = "geneCount";
+
+	// hashes per MinHash band
+	private static final int BAND = 4;
+	// rows of pathways scored by one task
+	private static final int ROWS = 32;
+
+	public enum Measure {
+		// shared genes / genes of either pathway
+		JACCARD,
+		// shared genes / genes of the smaller pathway
+		OVERLAP
+	}
+
+	private Measure measure = Measure.JACCARD;
+	private double threshold = 0.1;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int hashes = 0;
+
+	private List<Node> pathways;
+	private BitSet [] genes;
+	private int [] sizes;
+	private int [][] pathwaysOfGene;
+
+	public PathwaySimilarity setMeasure(Measure measure) {
+		this.measure = measure;
+		return this;
+	}
+
+	/**
+	 * minimum similarity of a pair to be linked, has to be above 0
+	 */
+	public PathwaySimilarity setThreshold(double threshold) {
+		if(threshold <= 0) {
+			throw new IllegalArgumentException("Threshold has to be above 0: " + threshold);
+		}
+		this.threshold = threshold;
+		return this;
+	}
+
+	public PathwaySimilarity setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+
+	/**
+	 * estimates the similarity from MinHash signatures of this many
+	 * hashes, rounded up to a multiple of 4; 0 computes it exactly
+	 */
+	public PathwaySimilarity setMinHash(int hashes) {
+		this.hashes = hashes <= 0 ? 0 : (hashes + BAND - 1) / BAND * BAND;
+		return this;
+	}
+
+	/**
+	 * @param associations network of pathway nodes, with type
+	 * "pathway", that link to their genes
+	 */
+	public Graph create(Graph associations) throws InterruptedException, ExecutionException {
+		index(associations);
+		Graph graph = new Graph();
+		graph.setTitle(associations.getTitle());
+		Node [] nodes = new Node[pathways.size()];
+		for(int i = 0; i < nodes.length; i++) {
+			Node p = pathways.get(i);
+			nodes[i] = graph.addNode(p.getId());
+			nodes[i].setAttribute(AttributeHolder.LABEL, (String) p.getAttribute(AttributeHolder.LABEL));
+			nodes[i].setAttribute(AttributeHolder.TYPE, "pathway");
+			nodes[i].setAttribute(GENE_COUNT, sizes[i]);
+		}
+		for(Pair pair : score()) {
+			Edge edge = graph.addEdge(nodes[pair.a], nodes[pair.b]);
+			// rounded to four digits as before
+			edge.setAttribute(SIMILARITY, Math.round(pair.similarity * 10000) / 10000.0);
+			if(hashes == 0) {
+				edge.setAttribute(SHARED_GENES, pair.shared);
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * the genes of every pathway as bits over the gene nodes, and
+	 * the pathways of every gene
+	 */
+	private void index(Graph associations) {
+		pathways = new ArrayList<Node>();
+		int [] pathwayIndex = new int[associations.getNodes().size()];
+		int [] geneIndex = new int[pathwayIndex.length];
+		Arrays.fill(pathwayIndex, -1);
+		Arrays.fill(geneIndex, -1);
+		for(Node node : associations.getNodes()) {
+			if("pathway".equals(node.getAttribute(AttributeHolder.TYPE))) {
+				pathwayIndex[node.getIndex()] = pathways.size();
+				pathways.add(node);
+			}
+		}
+		genes = new BitSet[pathways.size()];
+		for(int i = 0; i < genes.length; i++) {
+			genes[i] = new BitSet();
+		}
+		int geneCount = 0;
+		for(Edge edge : associations.getEdges()) {
+			int p = pathwayIndex[edge.getSource().getIndex()];
+			int target = edge.getTarget().getIndex();
+			if(p >= 0 && pathwayIndex[target] < 0) {
+				if(geneIndex[target] < 0) {
+					geneIndex[target] = geneCount++;
+				}
+				genes[p].set(geneIndex[target]);
+			}
+		}
+		sizes = new int[genes.length];
+		int [] counts = new int[geneCount];
+		for(int i = 0; i < genes.length; i++) {
+			sizes[i] = genes[i].cardinality();
+			for(int g = genes[i].nextSetBit(0); g >= 0; g = genes[i].nextSetBit(g + 1)) {
+				counts[g]++;
+			}
+		}
+		pathwaysOfGene = new int[geneCount][];
+		for(int g = 0; g < geneCount; g++) {
+			pathwaysOfGene[g] = new int[counts[g]];
+			counts[g] = 0;
+		}
+		for(int i = 0; i < genes.length; i++) {
+			for(int g = genes[i].nextSetBit(0); g >= 0; g = genes[i].nextSetBit(g + 1)) {
+				pathwaysOfGene[g][counts[g]++] = i;
+			}
+		}
+	}
+
+	/**
+	 * all pairs above the threshold, ordered by first and second pathway
+	 */
+	private List<Pair> score() throws InterruptedException, ExecutionException {
+		final int [][] signatures = hashes > 0 ? signatures() : null;
+		final List<TreeSet<Integer>> candidates = hashes > 0 ? candidates(signatures) : null;
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "similarity");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<List<Pair>>> futures = new ArrayList<Future<List<Pair>>>();
+			for(int start = 0; start < genes.length; start += ROWS) {
+				final int from = start;
+				final int to = Math.min(genes.length, start + ROWS);
+				futures.add(executor.submit(new Callable<List<Pair>>() {
+					public List<Pair> call() {
+						return signatures == null ? scoreExact(from, to) : scoreMinHash(from, to, signatures, candidates);
+					}
+				}));
+			}
+			List<Pair> pairs = new ArrayList<Pair>();
+			for(Future<List<Pair>> future : futures) {
+				pairs.addAll(future.get());
+			}
+			return pairs;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * counts the genes pathway i shares with every later pathway
+	 */
+	private List<Pair> scoreExact(int from, int to) {
+		List<Pair> pairs = new ArrayList<Pair>();
+		int [] shared = new int[genes.length];
+		int [] touched = new int[genes.length];
+		for(int i = from; i < to; i++) {
+			int n = 0;
+			for(int g = genes[i].nextSetBit(0); g >= 0; g = genes[i].nextSetBit(g + 1)) {
+				for(int j : pathwaysOfGene[g]) {
+					if(j > i && shared[j]++ == 0) {
+						touched[n++] = j;
+					}
+				}
+			}
+			Arrays.sort(touched, 0, n);
+			for(int k = 0; k < n; k++) {
+				int j = touched[k];
+				double similarity = similarity(shared[j], sizes[i], sizes[j]);
+				if(similarity >= threshold) {
+					pairs.add(new Pair(i, j, shared[j], similarity));
+				}
+				shared[j] = 0;
+			}
+		}
+		return pairs;
+	}
+
+	private List<Pair> scoreMinHash(int from, int to, int [][] signatures, List<TreeSet<Integer>> candidates) {
+		List<Pair> pairs = new ArrayList<Pair>();
+		for(int i = from; i < to; i++) {
+			for(int j : candidates.get(i)) {
+				int equal = 0;
+				for(int h = 0; h < hashes; h++) {
+					if(signatures[i][h] == signatures[j][h]) equal++;
+				}
+				double jaccard = (double) equal / hashes;
+				// expected number of shared genes for that Jaccard index
+				double shared = jaccard * (sizes[i] + sizes[j]) / (1 + jaccard);
+				double similarity = measure == Measure.JACCARD ? jaccard : shared / Math.min(sizes[i], sizes[j]);
+				if(equal > 0 && similarity >= threshold) {
+					pairs.add(new Pair(i, j, (int) Math.round(shared), similarity));
+				}
+			}
+		}
+		return pairs;
+	}
+
+	private double similarity(int shared, int a, int b) {
+		if(measure == Measure.JACCARD) {
+			return (double) shared / (a + b - shared);
+		}
+		return (double) shared / Math.min(a, b);
+	}
+
+	/**
+	 * the minimum of every hash function over the genes of a
+	 * pathway; the hash functions have a fixed seed, so the same
+	 * network always gives the same signatures
+	 */
+	private int [][] signatures() {
+		Random random = new Random(42);
+		long [] a = new long[hashes];
+		long [] b = new long[hashes];
+		for(int h = 0; h < hashes; h++) {
+			a[h] = random.nextLong() | 1;
+			b[h] = random.nextLong();
+		}
+		int [][] signatures = new int[genes.length][hashes];
+		for(int i = 0; i < genes.length; i++) {
+			int [] signature = signatures[i];
+			Arrays.fill(signature, Integer.MAX_VALUE);
+			for(int g = genes[i].nextSetBit(0); g >= 0; g = genes[i].nextSetBit(g + 1)) {
+				for(int h = 0; h < hashes; h++) {
+					int value = (int) ((a[h] * (g + 1) + b[h]) >>> 33);
+					if(value < signature[h]) signature[h] = value;
+				}
+			}
+		}
+		return signatures;
+	}
+
+	/**
+	 * later pathways that fall into the same bucket as pathway i
+	 * for at least one band
+	 */
+	private List<TreeSet<Integer>> candidates(int [][] signatures) {
+		List<TreeSet<Integer>> candidates = new ArrayList<TreeSet<Integer>>();
+		for(int i = 0; i < genes.length; i++) {
+			candidates.add(new TreeSet<Integer>());
+		}
+		for(int band = 0; band < hashes; band += BAND) {
+			Map<Long, List<Integer>> buckets = new HashMap<Long, List<Integer>>();
+			for(int i = 0; i < genes.length; i++) {
+				if(sizes[i] == 0) continue;
+				long key = 17;
+				for(int h = band; h < band + BAND; h++) {
+					key = key * 1000003 + signatures[i][h];
+				}
+				List<Integer> bucket = buckets.get(key);
+				if(bucket == null) {
+					bucket = new ArrayList<Integer>(2);
+					buckets.put(key, bucket);
+				}
+				for(int j : bucket) {
+					candidates.get(j).add(i);
+				}
+				bucket.add(i);
+			}
+		}
+		return candidates;
+	}
+
+	private static class Pair {
+		final int a;
+		final int b;
+		final int shared;
+		final double similarity;
+
+		Pair(int a, int b, int shared, double similarity) {
+			this.a = a;
+			this.b = b;
+			this.shared = shared;
+			this.similarity = similarity;
+		}
+	}
+}
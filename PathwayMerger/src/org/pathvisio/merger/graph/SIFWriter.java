@@ -0,0 +1,43 @@
+package org.pathvisio.merger.graph;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes a graph in the tab separated simple interaction format,
+ * one "source, type, target" line per edge. The edge type is its
+ * Type attribute, nodes without edges are written on their own.
+ *
+ * @author mkutmon
+ */
+public class SIFWriter implements GraphWriter {
+
+	public void write(Graph graph, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), GraphWriters.BUFFER_SIZE);
+		try {
+			boolean [] connected = new boolean[graph.getNodes().size()];
+			for(Edge edge : graph.getEdges()) {
+				Object type = edge.getAttribute(AttributeHolder.TYPE);
+				writer.write(edge.getSource().getId());
+				writer.write('\t');
+				writer.write(type == null ? "interacts" : type.toString());
+				writer.write('\t');
+				writer.write(edge.getTarget().getId());
+				writer.write('\n');
+				connected[edge.getSource().getIndex()] = true;
+				connected[edge.getTarget().getIndex()] = true;
+			}
+			for(Node n : graph.getNodes()) {
+				if(!connected[n.getIndex()]) {
+					writer.write(n.getId());
+					writer.write('\n');
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package org.pathvisio.merger.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the neighbourhood of seed nodes from a network: all
+ * nodes within a number of hops of a seed, with the edges between
+ * them. Edge direction is ignored, as in the {@link Adjacency}.
+ *
+ * The adjacency and the edges of every node are indexed once, a
+ * query then only visits the nodes it returns and their edges, so
+ * it costs the same for a small neighbourhood in any size of
+ * network. Pathways that none of the returned nodes and edges
+ * belong to are left out of the pathway list of the result.
+ *
+ * A subnetwork can be queried from several threads.
+ *
+ * @author mkutmon
+ *
+ */
+public class Subnetwork {
+
+	public static final String DISTANCE = "distance";
+
+	private Graph graph;
+	private Adjacency adjacency;
+	private Edge [] edges;
+	// edges of node i, in both directions, are incident[edgeOffsets[i]] up to incident[edgeOffsets[i + 1]]
+	private int [] edgeOffsets;
+	private int [] incident;
+
+	public Subnetwork(Graph graph) {
+		this(graph, new Adjacency(graph));
+	}
+
+	/**
+	 * uses an adjacency that was already built for the graph
+	 */
+	public Subnetwork(Graph graph, Adjacency adjacency) {
+		this.graph = graph;
+		this.adjacency = adjacency;
+		edges = graph.getEdges().toArray(new Edge[0]);
+		int n = adjacency.getNodeCount();
+		edgeOffsets = new int[n + 1];
+		for(Edge e : edges) {
+			edgeOffsets[e.getSource().getIndex() + 1]++;
+			if(e.getTarget() != e.getSource()) {
+				edgeOffsets[e.getTarget().getIndex() + 1]++;
+			}
+		}
+		for(int i = 0; i < n; i++) {
+			edgeOffsets[i + 1] += edgeOffsets[i];
+		}
+		incident = new int[edgeOffsets[n]];
+		int [] fill = Arrays.copyOf(edgeOffsets, n);
+		for(int k = 0; k < edges.length; k++) {
+			int s = edges[k].getSource().getIndex();
+			int t = edges[k].getTarget().getIndex();
+			incident[fill[s]++] = k;
+			if(t != s) {
+				incident[fill[t]++] = k;
+			}
+		}
+	}
+
+	/**
+	 * @param seeds nodes of the network
+	 * @param hops maximum distance from the nearest seed, 0 gives
+	 * only the seeds and the edges between them
+	 * @return the nodes and edges in network order with all their
+	 * attributes and the hop distance as "distance"
+	 */
+	public Graph extract(Collection<Node> seeds, int hops) {
+		// distance of every node that was reached
+		Map<Integer, Integer> distances = new HashMap<Integer, Integer>();
+		List<Integer> frontier = new ArrayList<Integer>();
+		for(Node seed : seeds) {
+			if(distances.put(seed.getIndex(), 0) == null) {
+				frontier.add(seed.getIndex());
+			}
+		}
+		for(int hop = 1; hop <= hops && !frontier.isEmpty(); hop++) {
+			List<Integer> next = new ArrayList<Integer>();
+			for(int node : frontier) {
+				for(int k = adjacency.offsets[node]; k < adjacency.offsets[node + 1]; k++) {
+					int neighbor = adjacency.neighbors[k];
+					if(!distances.containsKey(neighbor)) {
+						distances.put(neighbor, hop);
+						next.add(neighbor);
+					}
+				}
+			}
+			frontier = next;
+		}
+
+		int [] nodes = new int[distances.size()];
+		int i = 0;
+		for(int node : distances.keySet()) {
+			nodes[i++] = node;
+		}
+		Arrays.sort(nodes);
+		List<Integer> found = new ArrayList<Integer>();
+		for(int node : nodes) {
+			for(int k = edgeOffsets[node]; k < edgeOffsets[node + 1]; k++) {
+				Edge e = edges[incident[k]];
+				int s = e.getSource().getIndex();
+				int t = e.getTarget().getIndex();
+				// every edge is taken at its source
+				if(s == node && distances.containsKey(t)) {
+					found.add(incident[k]);
+				}
+			}
+		}
+		int [] edgeIndices = new int[found.size()];
+		for(i = 0; i < edgeIndices.length; i++) {
+			edgeIndices[i] = found.get(i);
+		}
+		Arrays.sort(edgeIndices);
+
+		Graph result = new Graph();
+		result.setTitle(graph.getTitle());
+		PathwaySet pathways = new PathwaySet();
+		for(int node : nodes) {
+			Node original = graph.getNode(node);
+			Node copy = result.addNode(original.getId());
+			copyAttributes(original, copy);
+			copy.setAttribute(DISTANCE, distances.get(node));
+			pathways.addAll(original.getPathways());
+		}
+		for(int k : edgeIndices) {
+			Edge original = edges[k];
+			Node source = result.getNode(original.getSource().getId());
+			Node target = result.getNode(original.getTarget().getId());
+			Edge copy = isNamed(original) ? result.addEdge(original.getId(), source, target) : result.addEdge(source, target);
+			copyAttributes(original, copy);
+			pathways.addAll(original.getPathways());
+		}
+		// the pathway list keeps the network indices, only pathways of the subnetwork are listed
+		for(String name : graph.getAttributeNames()) {
+			int space = name.indexOf(' ');
+			if(space > 0 && name.endsWith(" Pathway") && isNumber(name.substring(0, space))
+					&& !pathways.contains(Integer.parseInt(name.substring(0, space)))) {
+				continue;
+			}
+			result.setAttribute(name, String.valueOf(graph.getAttribute(name)));
+		}
+		return result;
+	}
+
+	private boolean isNamed(Edge edge) {
+		return graph.getEdge(edge.getSource(), edge.getTarget()) != edge;
+	}
+
+	private static void copyAttributes(AttributeHolder from, AttributeHolder to) {
+		for(String name : from.getAttributeNames()) {
+			Object value = from.getAttribute(name);
+			if(name.equals(AttributeHolder.PATHWAYS)) {
+				to.getPathways().addAll(from.getPathways());
+			} else if(name.equals(AttributeHolder.PATHWAY_COUNT)) {
+				to.setCountPathways(from.isCountPathways());
+			} else if(value instanceof Number) {
+				to.setAttribute(name, (Number) value);
+			} else {
+				to.setAttribute(name, String.valueOf(value));
+			}
+		}
+	}
+
+	private static boolean isNumber(String value) {
+		for(int i = 0; i < value.length(); i++) {
+			if(!Character.isDigit(value.charAt(i))) {
+				return false;
+			}
+		}
+		return value.length() > 0;
+	}
+}
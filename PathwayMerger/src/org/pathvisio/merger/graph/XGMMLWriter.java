@@ -1,133 +1,174 @@
 package org.pathvisio.merger.graph;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-
-import javax.xml.stream.FactoryConfigurationError;
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
+import java.io.Writer;
 
 
 /**
+ * Writes the XML directly to a buffered writer, attribute
+ * values are escaped while they are written.
+ *
  * @author mkutmon
  * adapted from Thomas Kelder
  */
-public class XGMMLWriter {
+public class XGMMLWriter implements GraphWriter {
 	final static String NS = "http://www.cs.rpi.edu/XGMML";
-	
-	public static <N, E> void write(Graph graph, PrintWriter out) throws IOException, XMLStreamException, FactoryConfigurationError {
-		
-		XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
-		writer.writeStartDocument();
-		writer.writeCharacters("\n");
-		writer.writeStartElement("graph");
-		writer.writeDefaultNamespace(NS);
-		writer.writeAttribute("id", "" + System.currentTimeMillis());
-		writer.writeAttribute("label", graph.getTitle());
-
-		printAttributes(graph, writer, 1);
-		
-		//Create the nodes
-		for(Node n : graph.getNodes()) {
-			writer.writeCharacters("\n");
-			writer.writeCharacters("   ");
-			writer.writeStartElement("node");
-			writer.writeAttribute("id", n.getId());
-			writer.writeAttribute("label", n.getId());
-
-			printAttributes(n, writer, 2);
-			
-			writer.writeCharacters("\n");
-			writer.writeCharacters("   ");
-			writer.writeEndElement();
-		}
-		
-		//Create the edges
-		for(Edge edge : graph.getEdges()) {
-			Node src = edge.getSource();
-			Node tgt = edge.getTarget();
-			writer.writeCharacters("\n");
-			writer.writeCharacters("   ");
-			writer.writeStartElement("edge");
-			writer.writeAttribute("id", edge.getId());
-			writer.writeAttribute("label", edge.getId());
-			writer.writeAttribute("source", src.getId());
-			writer.writeAttribute("target", tgt.getId());
-			
-			Object interaction = edge.getAttribute("interaction");
-			writer.writeCharacters("\n");
-			writer.writeCharacters("      ");
-			writer.writeStartElement("att");
-			writer.writeAttribute("label", "interaction");
-			writer.writeAttribute("name", "interaction");
-			writer.writeAttribute("value", interaction == null ? "" : interaction.toString());	
-			writer.writeAttribute("type", "string");
-
-			writer.writeCharacters("\n");
-			writer.writeCharacters("      ");
-			writer.writeEndElement();
-			
-			printAttributes(edge, writer, 2);
-
-			writer.writeCharacters("\n");
-			writer.writeCharacters("   ");
-			writer.writeEndElement();
+
+	private static final String [] INDENT = { "", "   ", "      ", "         " };
+
+	private boolean indent;
+
+	public XGMMLWriter(boolean indent) {
+		this.indent = indent;
+	}
+
+	public void write(Graph graph, OutputStream out) throws IOException {
+		write(graph, out, indent);
+	}
+
+	public static void write(Graph graph, File file, boolean indent) throws IOException {
+		write(graph, GraphWriters.open(file), indent);
+	}
+
+	/**
+	 * writes the graph as UTF-8 and closes the stream
+	 */
+	public static void write(Graph graph, OutputStream out, boolean indent) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), GraphWriters.BUFFER_SIZE);
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		write(graph, writer, indent);
+	}
+
+	public static void write(Graph graph, PrintWriter out) throws IOException {
+		out.write("<?xml version=\"1.0\" ?>");
+		write(graph, out, true);
+	}
+
+	private static void write(Graph graph, Writer writer, boolean indent) throws IOException {
+		try {
+			writer.write("\n<graph xmlns=\"");
+			writer.write(NS);
+			writer.write('"');
+			writeAttribute(writer, "id", "" + System.currentTimeMillis());
+			writeAttribute(writer, "label", graph.getTitle());
+			writer.write('>');
+
+			printAttributes(graph, writer, 1, indent);
+
+			//Create the nodes
+			for(Node n : graph.getNodes()) {
+				newLine(writer, 1, indent);
+				writer.write("<node");
+				writeAttribute(writer, "id", n.getId());
+				writeAttribute(writer, "label", n.getId());
+				writer.write('>');
+
+				printAttributes(n, writer, 2, indent);
+
+				newLine(writer, 1, indent);
+				writer.write("</node>");
+			}
+
+			//Create the edges
+			for(Edge edge : graph.getEdges()) {
+				String id = edge.getId();
+				newLine(writer, 1, indent);
+				writer.write("<edge");
+				writeAttribute(writer, "id", id);
+				writeAttribute(writer, "label", id);
+				writeAttribute(writer, "source", edge.getSource().getId());
+				writeAttribute(writer, "target", edge.getTarget().getId());
+				writer.write('>');
+
+				Object interaction = edge.getAttribute("interaction");
+				newLine(writer, 2, indent);
+				writer.write("<att label=\"interaction\" name=\"interaction\"");
+				writeAttribute(writer, "value", interaction == null ? "" : interaction.toString());
+				writer.write(" type=\"string\">");
+				newLine(writer, 2, indent);
+				writer.write("</att>");
+
+				printAttributes(edge, writer, 2, indent);
+
+				newLine(writer, 1, indent);
+				writer.write("</edge>");
+			}
+			newLine(writer, 0, indent);
+			writer.write("</graph>");
+		} finally {
+			writer.close();
 		}
-		writer.writeCharacters("\n");
-		writer.writeEndElement();
-		writer.writeEndDocument();
-		writer.close();
 	}
-	
-	private static void printAttributes(AttributeHolder attr, XMLStreamWriter writer, int depth) throws XMLStreamException {
+
+	private static void printAttributes(AttributeHolder attr, Writer writer, int depth, boolean indent) throws IOException {
 		for(String a : attr.getAttributeNames()) {
 			Object o = attr.getAttribute(a);
 			if(o == null) continue;
-			
-			String type =  o instanceof Number ? "real" : "string";
-			writer.writeCharacters("\n");
-			for(int i = 0; i < depth; i++) {
-				writer.writeCharacters("   ");
-			}
-			writer.writeStartElement("att");
-			boolean list = false;
-			if(o.toString().contains("[") && o.toString().contains("]")) {
-				type = "list";
-				list = true;
-				writer.writeAttribute("type", "list");
-				writer.writeAttribute("name", "identifiers");
-
-				String [] str = ((String)o).replace("[", "").replace("]", "").split(",");
+
+			String value = o.toString();
+			newLine(writer, depth, indent);
+			if(value.contains("[") && value.contains("]")) {
+				writer.write("<att type=\"list\" name=\"identifiers\">");
+				String [] str = value.replace("[", "").replace("]", "").split(",");
 				for(int i = 0; i < str.length; i++) {
-					writer.writeCharacters("\n");
-					for(int j = 0; j < depth+1; j++) {
-						writer.writeCharacters("   ");
-					}
-					writer.writeStartElement("att");
-					writer.writeAttribute("type", "string");
-					writer.writeAttribute("name", "identifiers");
-					writer.writeAttribute("value", str[i]);
-
-					writer.writeEndElement();
+					newLine(writer, depth + 1, indent);
+					writer.write("<att type=\"string\" name=\"identifiers\"");
+					writeAttribute(writer, "value", str[i]);
+					writer.write("></att>");
 				}
+				newLine(writer, depth, indent);
 			} else {
-				writer.writeAttribute("label", a);
-				writer.writeAttribute("name", a);
-				writer.writeAttribute("value", "" + o);
-				if(a.equals("context+ score") || a.equals("score") || a.equals("pvalue")) {
-					writer.writeAttribute("type", "real");
+				writer.write("<att");
+				writeAttribute(writer, "label", a);
+				writeAttribute(writer, "name", a);
+				writeAttribute(writer, "value", value);
+				if(o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte) {
+					writer.write(" type=\"integer\">");
+				} else if(o instanceof Number || a.equals("context+ score") || a.equals("score") || a.equals("pvalue")) {
+					writer.write(" type=\"real\">");
 				} else {
-					writer.writeAttribute("type", type);
+					writer.write(" type=\"string\">");
 				}
 			}
-			if(list) {
-				writer.writeCharacters("\n");
-				for(int i = 0; i < depth; i++) {
-					writer.writeCharacters("   ");
-				}
+			writer.write("</att>");
+		}
+	}
+
+	static void newLine(Writer writer, int depth, boolean indent) throws IOException {
+		if(indent) {
+			writer.write('\n');
+			writer.write(INDENT[depth]);
+		}
+	}
+
+	static void writeAttribute(Writer writer, String name, String value) throws IOException {
+		writer.write(' ');
+		writer.write(name);
+		writer.write("=\"");
+		writeEscaped(writer, value);
+		writer.write('"');
+	}
+
+	static void writeEscaped(Writer writer, String value) throws IOException {
+		int start = 0;
+		for(int i = 0; i < value.length(); i++) {
+			String escaped;
+			switch(value.charAt(i)) {
+			case '&': escaped = "&amp;"; break;
+			case '<': escaped = "&lt;"; break;
+			case '>': escaped = "&gt;"; break;
+			case '"': escaped = "&quot;"; break;
+			default: continue;
 			}
-			writer.writeEndElement();
+			writer.write(value, start, i - start);
+			writer.write(escaped);
+			start = i + 1;
 		}
+		writer.write(value, start, value.length() - start);
 	}
-}
\ No newline at end of file
+}
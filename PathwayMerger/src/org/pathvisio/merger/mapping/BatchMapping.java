@@ -0,0 +1,134 @@
+package org.pathvisio.merger.mapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.SimpleGdb;
+
+/**
+ * Maps many identifiers to one target data source in as few
+ * round trips as possible.
+ *
+ * IDMapperRdb implements the collection form of mapID as a loop
+ * over single lookups, so for BridgeDb pgdb databases the link
+ * table is queried directly with one IN list per chunk and
+ * source system. Other mappers get the collection form of
+ * mapID, chunk by chunk.
+ *
+ * @author mkutmon
+ *
+ */
+public class BatchMapping {
+
+	public static final int CHUNK_SIZE = 500;
+
+	private static final String SQL = "SELECT src.idRight, dest.idRight, dest.codeRight FROM link AS src " +
+			"JOIN link AS dest ON src.idLeft = dest.idLeft AND src.codeLeft = dest.codeLeft " +
+			"WHERE src.codeRight = ? AND dest.codeRight = ? AND src.idRight IN ";
+
+	private int queries = 0;
+
+	/**
+	 * number of batched queries issued so far
+	 */
+	public int getQueries() {
+		return queries;
+	}
+
+	/**
+	 * maps all xrefs to the target data source; every xref
+	 * is a key of the result, with an empty set if it could
+	 * not be mapped
+	 */
+	public Map<Xref, Set<Xref>> mapID(IDMapper mapper, Collection<Xref> refs, DataSource target) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for(Xref ref : refs) {
+			result.put(ref, new HashSet<Xref>());
+		}
+		if(mapper instanceof CachingIDMapper) {
+			mapper = ((CachingIDMapper) mapper).getMapper();
+		}
+		if(mapper instanceof SimpleGdb) {
+			mapRdb((SimpleGdb) mapper, result, target);
+		} else {
+			List<Xref> list = new ArrayList<Xref>(refs);
+			for(int i = 0; i < list.size(); i += CHUNK_SIZE) {
+				List<Xref> chunk = list.subList(i, Math.min(list.size(), i + CHUNK_SIZE));
+				Map<Xref, Set<Xref>> mapped = mapper.mapID(chunk, target);
+				queries++;
+				for(Xref ref : chunk) {
+					if(mapped.get(ref) != null) {
+						result.get(ref).addAll(mapped.get(ref));
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static DataSource getDataSource(String code) {
+		if(DataSource.systemCodeExists(code)) {
+			return DataSource.getExistingBySystemCode(code);
+		}
+		return DataSource.register(code, code).asDataSource();
+	}
+
+	private void mapRdb(SimpleGdb gdb, Map<Xref, Set<Xref>> result, DataSource target) throws IDMapperException {
+		// the link table is keyed by system code, so group by source system
+		Map<DataSource, List<String>> bySource = new HashMap<DataSource, List<String>>();
+		for(Xref ref : result.keySet()) {
+			if(!bySource.containsKey(ref.getDataSource())) {
+				bySource.put(ref.getDataSource(), new ArrayList<String>());
+			}
+			bySource.get(ref.getDataSource()).add(ref.getId());
+		}
+		try {
+			Connection con = gdb.getConnection();
+			for(DataSource source : bySource.keySet()) {
+				List<String> ids = bySource.get(source);
+				for(int i = 0; i < ids.size(); i += CHUNK_SIZE) {
+					List<String> chunk = ids.subList(i, Math.min(ids.size(), i + CHUNK_SIZE));
+					StringBuilder sql = new StringBuilder(SQL).append("(");
+					for(int j = 0; j < chunk.size(); j++) {
+						sql.append(j == 0 ? "?" : ", ?");
+					}
+					sql.append(")");
+					PreparedStatement pst = con.prepareStatement(sql.toString());
+					try {
+						pst.setString(1, source.getSystemCode());
+						pst.setString(2, target.getSystemCode());
+						for(int j = 0; j < chunk.size(); j++) {
+							pst.setString(3 + j, chunk.get(j));
+						}
+						ResultSet r = pst.executeQuery();
+						queries++;
+						while(r.next()) {
+							Set<Xref> set = result.get(new Xref(r.getString(1), source));
+							if(set != null) {
+								set.add(new Xref(r.getString(2), getDataSource(r.getString(3))));
+							}
+						}
+						r.close();
+					} finally {
+						pst.close();
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new IDMapperException(e);
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package org.pathvisio.merger.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Bounded least-recently-used cache in front of an IDMapper.
+ * Identifier mappings are cached per source xref and target
+ * data sources, attributes per xref. Empty results are cached
+ * as well, so an identifier only reaches the database once as
+ * long as it is not evicted.
+ *
+ * Mappings resolved up front with {@link #prefetch} are kept in
+ * a separate table that is never evicted.
+ *
+ * @author mkutmon
+ *
+ */
+public class CachingIDMapper implements IDMapper, AttributeMapper {
+
+	private IDMapper mapper;
+	private LruCache<MappingKey, Set<Xref>> mappings;
+	private LruCache<Xref, Map<String, Set<String>>> attributes;
+	private Map<MappingKey, Set<Xref>> resolved = new ConcurrentHashMap<MappingKey, Set<Xref>>();
+	private BatchMapping batch = new BatchMapping();
+
+	private AtomicLong mappingHits = new AtomicLong();
+	private AtomicLong mappingMisses = new AtomicLong();
+	private AtomicLong attributeHits = new AtomicLong();
+	private AtomicLong attributeMisses = new AtomicLong();
+
+	public CachingIDMapper(IDMapper mapper, int maxSize) {
+		this.mapper = mapper;
+		mappings = new LruCache<MappingKey, Set<Xref>>(maxSize);
+		attributes = new LruCache<Xref, Map<String, Set<String>>>(maxSize);
+	}
+
+	public IDMapper getMapper() {
+		return mapper;
+	}
+
+	/**
+	 * resolves all xrefs to the target data source in bulk and
+	 * keeps the results for the rest of the run, jobs that share
+	 * the mapper prefetch one after the other
+	 * @return the number of xrefs that had to be resolved
+	 */
+	public synchronized int prefetch(Collection<Xref> refs, DataSource target) throws IDMapperException {
+		DataSource [] targets = new DataSource [] { target };
+		List<Xref> missing = new ArrayList<Xref>();
+		for(Xref ref : refs) {
+			if(!resolved.containsKey(new MappingKey(ref, targets))) {
+				missing.add(ref);
+			}
+		}
+		Map<Xref, Set<Xref>> mapped = batch.mapID(mapper, missing, target);
+		for(Xref ref : missing) {
+			resolved.put(new MappingKey(ref, targets), Collections.unmodifiableSet(mapped.get(ref)));
+		}
+		return missing.size();
+	}
+
+	/**
+	 * number of queries used by {@link #prefetch}
+	 */
+	public int getPrefetchQueries() {
+		return batch.getQueries();
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		MappingKey key = new MappingKey(ref, tgtDataSources);
+		Set<Xref> result = resolved.get(key);
+		if(result == null) {
+			result = mappings.lookup(key);
+		}
+		if(result != null) {
+			mappingHits.incrementAndGet();
+			return result;
+		}
+		mappingMisses.incrementAndGet();
+		result = Collections.unmodifiableSet(new HashSet<Xref>(mapper.mapID(ref, tgtDataSources)));
+		mappings.store(key, result);
+		return result;
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		List<Xref> missing = new ArrayList<Xref>();
+		for(Xref ref : srcXrefs) {
+			MappingKey key = new MappingKey(ref, tgtDataSources);
+			Set<Xref> cached = resolved.get(key);
+			if(cached == null) {
+				cached = mappings.lookup(key);
+			}
+			if(cached != null) {
+				mappingHits.incrementAndGet();
+				result.put(ref, cached);
+			} else {
+				mappingMisses.incrementAndGet();
+				missing.add(ref);
+			}
+		}
+		if(missing.size() > 0) {
+			Map<Xref, Set<Xref>> mapped = mapper.mapID(missing, tgtDataSources);
+			for(Xref ref : missing) {
+				Set<Xref> set = mapped.get(ref);
+				set = set == null ? Collections.<Xref>emptySet() : Collections.unmodifiableSet(new HashSet<Xref>(set));
+				mappings.store(new MappingKey(ref, tgtDataSources), set);
+				result.put(ref, set);
+			}
+		}
+		return result;
+	}
+
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException {
+		Map<String, Set<String>> result = attributes.lookup(ref);
+		if(result != null) {
+			attributeHits.incrementAndGet();
+			return result;
+		}
+		attributeMisses.incrementAndGet();
+		result = Collections.unmodifiableMap(getAttributeMapper().getAttributes(ref));
+		attributes.store(ref, result);
+		return result;
+	}
+
+	public Set<String> getAttributes(Xref ref, String attrname) throws IDMapperException {
+		Set<String> result = getAttributes(ref).get(attrname);
+		return result == null ? Collections.<String>emptySet() : result;
+	}
+
+	public long getMappingHits() { return mappingHits.get(); }
+	public long getMappingMisses() { return mappingMisses.get(); }
+	public long getAttributeHits() { return attributeHits.get(); }
+	public long getAttributeMisses() { return attributeMisses.get(); }
+
+	/**
+	 * summary of the hit and miss counts for the log file
+	 */
+	public String getStatistics() {
+		return "mapID " + format(mappingHits.get(), mappingMisses.get()) +
+				", attributes " + format(attributeHits.get(), attributeMisses.get());
+	}
+
+	private static String format(long hits, long misses) {
+		long total = hits + misses;
+		int rate = total == 0 ? 0 : (int)(100 * hits / total);
+		return hits + " hits / " + misses + " misses (" + rate + "%)";
+	}
+
+	private AttributeMapper getAttributeMapper() {
+		if(mapper instanceof AttributeMapper) {
+			return (AttributeMapper) mapper;
+		}
+		throw new UnsupportedOperationException(mapper + " does not provide attributes");
+	}
+
+	// delegated methods, not cached
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		return mapper.xrefExists(xref);
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		return mapper.freeSearch(text, limit);
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		return mapper.getCapabilities();
+	}
+
+	public void close() throws IDMapperException {
+		mapper.close();
+	}
+
+	public boolean isConnected() {
+		return mapper.isConnected();
+	}
+
+	public boolean isFreeAttributeSearchSupported() {
+		return getAttributeMapper().isFreeAttributeSearchSupported();
+	}
+
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) throws IDMapperException {
+		return getAttributeMapper().freeAttributeSearch(query, attrType, limit);
+	}
+
+	public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit) throws IDMapperException {
+		return getAttributeMapper().freeAttributeSearchEx(query, attrType, limit);
+	}
+
+	public Set<String> getAttributeSet() throws IDMapperException {
+		return getAttributeMapper().getAttributeSet();
+	}
+
+	private static class MappingKey {
+		private Xref ref;
+		private DataSource [] targets;
+		private int hash;
+
+		MappingKey(Xref ref, DataSource [] targets) {
+			this.ref = ref;
+			this.targets = targets;
+			hash = 31 * ref.hashCode() + Arrays.hashCode(targets);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if(!(o instanceof MappingKey)) return false;
+			MappingKey other = (MappingKey) o;
+			return ref.equals(other.ref) && Arrays.equals(targets, other.targets);
+		}
+	}
+
+	/**
+	 * access ordered LinkedHashMap that drops the least recently
+	 * used entry once the maximum size is reached
+	 */
+	private static class LruCache<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+		private int maxSize;
+
+		LruCache(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		synchronized V lookup(K key) {
+			return get(key);
+		}
+
+		synchronized void store(K key, V value) {
+			put(key, value);
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
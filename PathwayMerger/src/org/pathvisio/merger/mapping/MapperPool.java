@@ -0,0 +1,104 @@
+package org.pathvisio.merger.mapping;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.bio.DataSourceTxt;
+import org.bridgedb.rdb.SimpleGdb;
+
+/**
+ * Connected mapping databases shared by all merge jobs of a JVM.
+ * Every database is connected once, on first use, and wrapped in
+ * a {@link CachingIDMapper}, so later jobs find the cache and the
+ * prefetched mappings of earlier jobs. The cache statistics are
+ * therefore counted over all jobs.
+ *
+ * With preloading the mappings of a pgdb database are read into
+ * a {@link MappingTable} instead, which needs no cache. Files
+ * written by {@link MappingIndexWriter} are opened as a memory-mapped
+ * {@link MappingIndex}, also without a cache.
+ *
+ * @author mkutmon
+ *
+ */
+public class MapperPool {
+
+	private int cacheSize;
+	private boolean preload;
+	private Map<File, IDMapper> mappers = new HashMap<File, IDMapper>();
+
+	/**
+	 * @param cacheSize maximum number of cached mappings and attributes per database
+	 */
+	public MapperPool(int cacheSize) throws ClassNotFoundException {
+		this(cacheSize, false);
+	}
+
+	/**
+	 * @param preload loads the mappings of pgdb databases into memory
+	 */
+	public MapperPool(int cacheSize, boolean preload) throws ClassNotFoundException {
+		this.cacheSize = cacheSize;
+		this.preload = preload;
+		DataSourceTxt.init();
+		Class.forName("org.bridgedb.rdb.IDMapperRdb");
+	}
+
+	/**
+	 * the mapper for a pgdb database or mapping index, connects
+	 * to it on first use
+	 * @return a {@link CachingIDMapper}, {@link MappingTable} or {@link MappingIndex}
+	 */
+	public synchronized IDMapper get(File database) throws IDMapperException {
+		File key = database.getAbsoluteFile();
+		IDMapper mapper = mappers.get(key);
+		if(mapper == null) {
+			if(MappingIndex.isIndex(key)) {
+				try {
+					mapper = new MappingIndex(key);
+				} catch (IOException e) {
+					throw new IDMapperException(e);
+				}
+			} else {
+				mapper = wrap(BridgeDb.connect("idmapper-pgdb:" + key.getPath()));
+			}
+			mappers.put(key, mapper);
+		}
+		return mapper;
+	}
+
+	/**
+	 * uses the given mapper for the database instead of connecting
+	 * to it, the mapper has to be thread-safe
+	 */
+	public synchronized IDMapper put(File database, IDMapper mapper) {
+		IDMapper wrapped = wrap(mapper);
+		mappers.put(database.getAbsoluteFile(), wrapped);
+		return wrapped;
+	}
+
+	private IDMapper wrap(IDMapper mapper) {
+		if(preload && mapper instanceof SimpleGdb) {
+			return new MappingTable((SimpleGdb) mapper);
+		}
+		return new CachingIDMapper(mapper, cacheSize);
+	}
+
+	/**
+	 * disconnects all databases
+	 */
+	public synchronized void close() throws IDMapperException {
+		List<IDMapper> list = new ArrayList<IDMapper>(mappers.values());
+		mappers.clear();
+		for(IDMapper mapper : list) {
+			mapper.close();
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package org.pathvisio.merger.mapping;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AbstractIDMapperCapabilities;
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Looks up mappings in an index file written by
+ * {@link MappingIndexWriter}. The file is memory-mapped, so opening
+ * it costs the same for any size and the pages are shared through
+ * the OS page cache by all runs that use the same index.
+ *
+ * The index holds one table per target system code and one for the
+ * "Symbol" attribute. A table is a list of "code TAB id" keys sorted
+ * by their UTF-8 bytes, found by binary search, each with its values.
+ * All reads use absolute positions, so lookups need no locking.
+ *
+ * File layout, all numbers are big-endian ints and all strings are
+ * an unsigned short length followed by UTF-8:
+ * <pre>
+ * magic, version, offset of the directory
+ * tables: key count n, value count m, key offsets [n],
+ *         first value of every key [n + 1], value offsets [m], strings
+ * directory: table count, (table name, table offset) for every table
+ * </pre>
+ *
+ * @author mkutmon
+ *
+ */
+public class MappingIndex implements IDMapper, AttributeMapper {
+
+	static final int MAGIC = 0x504d4958;
+	static final int VERSION = 1;
+	static final String UTF8 = "UTF-8";
+
+	private File file;
+	private MappedByteBuffer buffer;
+	private Map<String, Region> tables = new HashMap<String, Region>();
+	private boolean connected = true;
+
+	public MappingIndex(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		if(buffer.limit() < 12 || buffer.getInt(0) != MAGIC) {
+			throw new IOException(file.getAbsolutePath() + " is not a mapping index");
+		}
+		if(buffer.getInt(4) != VERSION) {
+			throw new IOException("Mapping index " + file.getAbsolutePath() + " has version " + buffer.getInt(4) + ", expected " + VERSION);
+		}
+		int pos = buffer.getInt(8);
+		int count = buffer.getInt(pos);
+		pos += 4;
+		for(int i = 0; i < count; i++) {
+			String name = readString(pos);
+			pos += 2 + (buffer.getShort(pos) & 0xffff);
+			tables.put(name, new Region(buffer.getInt(pos)));
+			pos += 4;
+		}
+	}
+
+	/**
+	 * true if the file starts like a mapping index
+	 */
+	public static boolean isIndex(File file) {
+		if(!file.isFile() || file.length() < 12) {
+			return false;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				return in.readInt() == MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		if(ref.getDataSource() == null) {
+			return Collections.emptySet();
+		}
+		Set<Xref> result = null;
+		for(DataSource target : tgtDataSources) {
+			String [] ids = lookup(getTable(target.getSystemCode()), ref);
+			if(tgtDataSources.length == 1) {
+				Xref [] xrefs = new Xref[ids.length];
+				for(int i = 0; i < ids.length; i++) {
+					xrefs[i] = new Xref(ids[i], target);
+				}
+				return new MappingTable.ValueSet<Xref>(xrefs, 0, xrefs.length);
+			}
+			if(result == null) {
+				result = new HashSet<Xref>();
+			}
+			for(String id : ids) {
+				result.add(new Xref(id, target));
+			}
+		}
+		return result == null ? Collections.<Xref>emptySet() : result;
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for(Xref ref : srcXrefs) {
+			result.put(ref, mapID(ref, tgtDataSources));
+		}
+		return result;
+	}
+
+	/**
+	 * @return only the "Symbol" attribute of the xref
+	 */
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException {
+		Set<String> symbol = getAttributes(ref, MappingTable.SYMBOL);
+		if(symbol.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return Collections.singletonMap(MappingTable.SYMBOL, symbol);
+	}
+
+	public Set<String> getAttributes(Xref ref, String attrname) throws IDMapperException {
+		if(!attrname.equals(MappingTable.SYMBOL) || ref.getDataSource() == null) {
+			return Collections.emptySet();
+		}
+		String [] symbols = lookup(getTable(MappingTable.SYMBOL), ref);
+		return new MappingTable.ValueSet<String>(symbols, 0, symbols.length);
+	}
+
+	/**
+	 * summary of the tables for the log file
+	 */
+	public String getStatistics() {
+		StringBuilder text = new StringBuilder(file.getName() + ":");
+		for(String name : tables.keySet()) {
+			Region region = tables.get(name);
+			text.append(" " + region.keys + " ids with " + region.values + " values for " + name + ",");
+		}
+		text.append(" " + (buffer.limit() / 1024) + " KB mapped");
+		return text.toString();
+	}
+
+	private Region getTable(String name) throws IDMapperException {
+		Region region = tables.get(name);
+		if(region == null) {
+			throw new IDMapperException("Mapping index " + file.getAbsolutePath() + " has no table for " + name);
+		}
+		return region;
+	}
+
+	private String [] lookup(Region region, Xref ref) throws IDMapperException {
+		byte [] key;
+		try {
+			key = (ref.getDataSource().getSystemCode() + "\t" + ref.getId()).getBytes(UTF8);
+		} catch (IOException e) {
+			throw new IDMapperException(e);
+		}
+		int low = 0;
+		int high = region.keys - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(buffer.getInt(region.keyOffsets + 4 * mid), key);
+			if(cmp < 0) {
+				low = mid + 1;
+			} else if(cmp > 0) {
+				high = mid - 1;
+			} else {
+				int from = buffer.getInt(region.starts + 4 * mid);
+				int to = buffer.getInt(region.starts + 4 * mid + 4);
+				String [] values = new String[to - from];
+				for(int i = from; i < to; i++) {
+					values[i - from] = readString(buffer.getInt(region.valueOffsets + 4 * i));
+				}
+				return values;
+			}
+		}
+		return new String[0];
+	}
+
+	/**
+	 * compares the string at the position with the key, byte by
+	 * byte as unsigned values
+	 */
+	private int compare(int pos, byte [] key) {
+		int length = buffer.getShort(pos) & 0xffff;
+		pos += 2;
+		int n = Math.min(length, key.length);
+		for(int i = 0; i < n; i++) {
+			int cmp = (buffer.get(pos + i) & 0xff) - (key[i] & 0xff);
+			if(cmp != 0) {
+				return cmp;
+			}
+		}
+		return length - key.length;
+	}
+
+	private String readString(int pos) {
+		int length = buffer.getShort(pos) & 0xffff;
+		byte [] bytes = new byte[length];
+		for(int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(pos + 2 + i);
+		}
+		try {
+			return new String(bytes, UTF8);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * positions of the arrays of one table
+	 */
+	private class Region {
+		final int keys;
+		final int values;
+		final int keyOffsets;
+		final int starts;
+		final int valueOffsets;
+
+		Region(int pos) {
+			keys = buffer.getInt(pos);
+			values = buffer.getInt(pos + 4);
+			keyOffsets = pos + 8;
+			starts = keyOffsets + 4 * keys;
+			valueOffsets = starts + 4 * (keys + 1);
+		}
+	}
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		for(Region region : tables.values()) {
+			if(lookup(region, xref).length > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		return Collections.emptySet();
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		Set<DataSource> targets = new HashSet<DataSource>();
+		for(String name : tables.keySet()) {
+			if(DataSource.systemCodeExists(name)) {
+				targets.add(DataSource.getExistingBySystemCode(name));
+			}
+		}
+		return new AbstractIDMapperCapabilities(targets, false, Collections.<String, String>emptyMap()) { };
+	}
+
+	/**
+	 * the mapping is released once the index is no longer used
+	 */
+	public void close() {
+		connected = false;
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	public boolean isFreeAttributeSearchSupported() {
+		return false;
+	}
+
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) {
+		return Collections.emptyMap();
+	}
+
+	public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit) {
+		return Collections.emptyMap();
+	}
+
+	public Set<String> getAttributeSet() {
+		return tables.containsKey(MappingTable.SYMBOL) ? Collections.singleton(MappingTable.SYMBOL) : Collections.<String>emptySet();
+	}
+}
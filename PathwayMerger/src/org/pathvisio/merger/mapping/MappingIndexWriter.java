@@ -0,0 +1,224 @@
+package org.pathvisio.merger.mapping;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.Xref;
+import org.bridgedb.bio.DataSourceTxt;
+import org.bridgedb.rdb.SimpleGdb;
+
+/**
+ * Exports the mappings PathwayMerger uses from a pgdb database into
+ * a {@link MappingIndex} file: every source id to the given target
+ * system codes and the gene symbols. The index can then be set as
+ * gene.bridgedb or metabolite.bridgedb instead of the database.
+ *
+ * Usage: MappingIndexWriter database.bridge output.index [system codes]
+ * The system codes default to "En" and "Ch".
+ *
+ * @author mkutmon
+ *
+ */
+public class MappingIndexWriter {
+
+	// 2 bytes of string length
+	private static final int MAX_STRING = 0xffff;
+
+	private DataOutputStream out;
+	private long written = 0;
+
+	public static void main(String [] args) throws Exception {
+		if(args.length < 2) {
+			System.out.println("Usage: MappingIndexWriter database.bridge output.index [system codes]");
+			return;
+		}
+		DataSourceTxt.init();
+		Class.forName("org.bridgedb.rdb.IDMapperRdb");
+		File database = new File(args[0]);
+		File index = new File(args[1]);
+		List<String> codes = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : Arrays.asList("En", "Ch");
+
+		long start = System.currentTimeMillis();
+		IDMapper mapper = BridgeDb.connect("idmapper-pgdb:" + database.getAbsolutePath());
+		try {
+			MappingTable table = new MappingTable((SimpleGdb) mapper);
+			Map<String, MappingTable.Table> tables = new LinkedHashMap<String, MappingTable.Table>();
+			for(String code : codes) {
+				tables.put(code, table.getMappings(DataSource.getExistingBySystemCode(code)));
+			}
+			tables.put(MappingTable.SYMBOL, table.getSymbols());
+			new MappingIndexWriter().write(tables, index);
+			System.out.println("Wrote " + index.getAbsolutePath() + " in " + (System.currentTimeMillis() - start) + " ms: " + table.getStatistics());
+		} finally {
+			mapper.close();
+		}
+	}
+
+	/**
+	 * writes the tables under their names, tables of data sources
+	 * have to be named after the system code
+	 */
+	void write(Map<String, MappingTable.Table> tables, File file) throws IOException {
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		written = 0;
+		Map<String, Integer> offsets = new LinkedHashMap<String, Integer>();
+		int directory;
+		try {
+			writeInt(MappingIndex.MAGIC);
+			writeInt(MappingIndex.VERSION);
+			// offset of the directory, filled in at the end
+			writeInt(0);
+			for(String name : tables.keySet()) {
+				offsets.put(name, position());
+				writeTable(tables.get(name));
+			}
+			directory = position();
+			writeInt(offsets.size());
+			for(String name : offsets.keySet()) {
+				writeString(encode(name));
+				writeInt(offsets.get(name));
+			}
+		} finally {
+			out.close();
+		}
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.seek(8);
+			raf.writeInt(directory);
+		} finally {
+			raf.close();
+		}
+		if(file.exists() && !file.delete()) {
+			throw new IOException("Could not replace index " + file.getAbsolutePath());
+		}
+		if(!tmp.renameTo(file)) {
+			throw new IOException("Could not write index " + file.getAbsolutePath());
+		}
+	}
+
+	private void writeTable(MappingTable.Table table) throws IOException {
+		String [] codes = new String[table.codes.size()];
+		for(String code : table.codes.keySet()) {
+			codes[table.codes.get(code)] = code;
+		}
+		int n = table.ids.length;
+		final byte [][] keys = new byte[n][];
+		Integer [] order = new Integer[n];
+		for(int row = 0; row < n; row++) {
+			keys[row] = encode(codes[table.sources[row]] + "\t" + table.ids[row]);
+			order[row] = row;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return compareBytes(keys[a], keys[b]);
+			}
+		});
+
+		// values are written once, in the order they are first used
+		Map<String, Integer> valueIndex = new LinkedHashMap<String, Integer>();
+		List<byte []> valueBytes = new ArrayList<byte []>();
+		int [] refs = new int[table.values.length];
+		int m = 0;
+		for(int row : order) {
+			for(int i = table.starts[row]; i < table.starts[row + 1]; i++) {
+				String value = toString(table.values[i]);
+				Integer index = valueIndex.get(value);
+				if(index == null) {
+					index = valueBytes.size();
+					valueIndex.put(value, index);
+					valueBytes.add(encode(value));
+				}
+				refs[m++] = index;
+			}
+		}
+
+		long strings = position() + 8L + 4L * n + 4L * (n + 1) + 4L * m;
+		long cursor = strings;
+		writeInt(n);
+		writeInt(m);
+		for(int row : order) {
+			writeInt(checkOffset(cursor));
+			cursor += 2 + keys[row].length;
+		}
+		int [] valueOffsets = new int[valueBytes.size()];
+		for(int i = 0; i < valueOffsets.length; i++) {
+			valueOffsets[i] = checkOffset(cursor);
+			cursor += 2 + valueBytes.get(i).length;
+		}
+		int first = 0;
+		for(int row : order) {
+			writeInt(first);
+			first += table.starts[row + 1] - table.starts[row];
+		}
+		writeInt(first);
+		for(int i = 0; i < m; i++) {
+			writeInt(valueOffsets[refs[i]]);
+		}
+		for(int row : order) {
+			writeString(keys[row]);
+		}
+		for(byte [] value : valueBytes) {
+			writeString(value);
+		}
+		checkOffset(cursor);
+	}
+
+	private static String toString(Object value) {
+		return value instanceof Xref ? ((Xref) value).getId() : (String) value;
+	}
+
+	private static int compareBytes(byte [] a, byte [] b) {
+		int n = Math.min(a.length, b.length);
+		for(int i = 0; i < n; i++) {
+			int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+			if(cmp != 0) {
+				return cmp;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	private static byte [] encode(String value) throws IOException {
+		byte [] bytes = value.getBytes(MappingIndex.UTF8);
+		if(bytes.length > MAX_STRING) {
+			throw new IOException("String too long for a mapping index: " + value.substring(0, 50) + "...");
+		}
+		return bytes;
+	}
+
+	private static int checkOffset(long offset) throws IOException {
+		if(offset > Integer.MAX_VALUE) {
+			throw new IOException("Mapping index would be larger than 2 GB");
+		}
+		return (int) offset;
+	}
+
+	private int position() throws IOException {
+		return checkOffset(written);
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.writeInt(value);
+		written += 4;
+	}
+
+	private void writeString(byte [] bytes) throws IOException {
+		out.writeShort(bytes.length);
+		out.write(bytes);
+		written += 2 + bytes.length;
+	}
+}
@@ -0,0 +1,405 @@
+package org.pathvisio.merger.mapping;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.SimpleGdb;
+
+/**
+ * The mappings of a pgdb database loaded into memory: all source
+ * ids that map to a target data source and the gene symbols. A
+ * target is loaded in one query the first time it is asked for,
+ * after that lookups only read immutable arrays and do not go
+ * through the database connection, so they scale with the number
+ * of merge threads.
+ *
+ * Results are the same as those of the database, sets of several
+ * mappings iterate in the same order as the sets of a database
+ * mapper behind a {@link CachingIDMapper}. Only the
+ * "Symbol" attribute is kept, all other calls are passed on to
+ * the database.
+ *
+ * @author mkutmon
+ *
+ */
+public class MappingTable implements IDMapper, AttributeMapper {
+
+	public static final String SYMBOL = "Symbol";
+
+	private static final String MAPPINGS = "SELECT src.codeRight, src.idRight, dest.idRight FROM link AS src " +
+			"JOIN link AS dest ON src.idLeft = dest.idLeft AND src.codeLeft = dest.codeLeft " +
+			"WHERE dest.codeRight = ? ORDER BY src.codeRight, src.idRight";
+
+	private static final String SYMBOLS = "SELECT code, id, attrvalue FROM attribute WHERE attrname = ? ORDER BY code, id";
+
+	private SimpleGdb gdb;
+	// target system code -> mappings to that data source
+	private Map<String, Table> mappings = new ConcurrentHashMap<String, Table>();
+	private volatile Table symbols;
+	private long loadNanos = 0;
+
+	public MappingTable(SimpleGdb gdb) {
+		this.gdb = gdb;
+	}
+
+	/**
+	 * loads the mappings to the target data source, if that has
+	 * not happened yet
+	 */
+	public void load(DataSource target) throws IDMapperException {
+		getMappings(target);
+	}
+
+	/**
+	 * loads the gene symbols, if that has not happened yet
+	 */
+	public void loadSymbols() throws IDMapperException {
+		getSymbols();
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException {
+		if(ref.getDataSource() == null) {
+			return Collections.emptySet();
+		}
+		if(tgtDataSources.length == 1) {
+			return getMappings(tgtDataSources[0]).<Xref>get(ref);
+		}
+		Set<Xref> result = new HashSet<Xref>();
+		for(DataSource target : tgtDataSources) {
+			result.addAll(getMappings(target).<Xref>get(ref));
+		}
+		return result;
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for(Xref ref : srcXrefs) {
+			result.put(ref, mapID(ref, tgtDataSources));
+		}
+		return result;
+	}
+
+	/**
+	 * @return only the "Symbol" attribute of the xref
+	 */
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException {
+		Set<String> symbol = getSymbols().<String>get(ref);
+		if(symbol.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return Collections.singletonMap(SYMBOL, symbol);
+	}
+
+	public Set<String> getAttributes(Xref ref, String attrname) throws IDMapperException {
+		if(attrname.equals(SYMBOL)) {
+			return getSymbols().<String>get(ref);
+		}
+		return gdb.getAttributes(ref, attrname);
+	}
+
+	/**
+	 * summary of the loaded tables for the log file
+	 */
+	public String getStatistics() {
+		StringBuilder text = new StringBuilder();
+		for(String code : mappings.keySet()) {
+			Table table = mappings.get(code);
+			text.append(table.size() + " ids with " + table.values() + " mappings to " + code + ", ");
+		}
+		Table table = symbols;
+		if(table != null) {
+			text.append(table.size() + " symbols, ");
+		}
+		text.append("loaded in " + (loadNanos / 1000000) + " ms");
+		return text.toString();
+	}
+
+	Table getMappings(DataSource target) throws IDMapperException {
+		Table table = mappings.get(target.getSystemCode());
+		if(table == null) {
+			synchronized(this) {
+				table = mappings.get(target.getSystemCode());
+				if(table == null) {
+					table = load(MAPPINGS, target.getSystemCode(), target);
+					mappings.put(target.getSystemCode(), table);
+				}
+			}
+		}
+		return table;
+	}
+
+	Table getSymbols() throws IDMapperException {
+		Table table = symbols;
+		if(table == null) {
+			synchronized(this) {
+				table = symbols;
+				if(table == null) {
+					table = load(SYMBOLS, SYMBOL, null);
+					symbols = table;
+				}
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * runs the query, which returns the source system code, source
+	 * id and value sorted by source, and collects the values of every
+	 * source; values are xrefs of the target or, without a target,
+	 * strings
+	 */
+	private Table load(String sql, String parameter, DataSource target) throws IDMapperException {
+		long start = System.nanoTime();
+		TableBuilder builder = new TableBuilder();
+		Map<String, Object> values = new HashMap<String, Object>();
+		try {
+			Connection con = gdb.getConnection();
+			PreparedStatement pst = con.prepareStatement(sql);
+			try {
+				pst.setString(1, parameter);
+				ResultSet r = pst.executeQuery();
+				while(r.next()) {
+					String id = r.getString(3);
+					Object value = values.get(id);
+					if(value == null) {
+						value = target == null ? id : new Xref(id, target);
+						values.put(id, value);
+					}
+					builder.add(r.getString(1), r.getString(2), value);
+				}
+				r.close();
+			} finally {
+				pst.close();
+			}
+		} catch (SQLException e) {
+			throw new IDMapperException(e);
+		}
+		Table table = builder.build();
+		loadNanos += System.nanoTime() - start;
+		return table;
+	}
+
+	// passed on to the database
+
+	public boolean xrefExists(Xref xref) throws IDMapperException {
+		return gdb.xrefExists(xref);
+	}
+
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException {
+		return gdb.freeSearch(text, limit);
+	}
+
+	public IDMapperCapabilities getCapabilities() {
+		return gdb.getCapabilities();
+	}
+
+	public void close() throws IDMapperException {
+		gdb.close();
+	}
+
+	public boolean isConnected() {
+		return gdb.isConnected();
+	}
+
+	public boolean isFreeAttributeSearchSupported() {
+		return gdb.isFreeAttributeSearchSupported();
+	}
+
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) throws IDMapperException {
+		return gdb.freeAttributeSearch(query, attrType, limit);
+	}
+
+	public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit) throws IDMapperException {
+		return gdb.freeAttributeSearchEx(query, attrType, limit);
+	}
+
+	public Set<String> getAttributeSet() throws IDMapperException {
+		return gdb.getAttributeSet();
+	}
+
+	/**
+	 * Source ids with their values in an open addressing hash table.
+	 * The ids of row i are ids[i] in system code codes[sources[i]], its
+	 * values are values[starts[i]] up to values[starts[i + 1]].
+	 */
+	static class Table {
+		final Map<String, Integer> codes;
+		final String [] ids;
+		final short [] sources;
+		final int [] starts;
+		final Object [] values;
+		// row + 1 of the id that hashes to the slot, 0 for an empty slot
+		private final int [] slots;
+
+		Table(Map<String, Integer> codes, String [] ids, short [] sources, int [] starts, Object [] values) {
+			this.codes = codes;
+			this.ids = ids;
+			this.sources = sources;
+			this.starts = starts;
+			this.values = values;
+			int capacity = Integer.highestOneBit(Math.max(2, ids.length * 2 - 1)) << 1;
+			slots = new int[capacity];
+			for(int row = 0; row < ids.length; row++) {
+				int slot = hash(ids[row], sources[row]) & (capacity - 1);
+				while(slots[slot] != 0) {
+					slot = (slot + 1) & (capacity - 1);
+				}
+				slots[slot] = row + 1;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		<T> Set<T> get(Xref ref) {
+			Integer code = codes.get(ref.getDataSource().getSystemCode());
+			if(code == null) {
+				return Collections.emptySet();
+			}
+			String id = ref.getId();
+			int mask = slots.length - 1;
+			int slot = hash(id, code) & mask;
+			int row;
+			while((row = slots[slot]) != 0) {
+				row--;
+				if(sources[row] == code && ids[row].equals(id)) {
+					return new ValueSet<T>(values, starts[row], starts[row + 1]);
+				}
+				slot = (slot + 1) & mask;
+			}
+			return Collections.emptySet();
+		}
+
+		int size() {
+			return ids.length;
+		}
+
+		int values() {
+			return values.length;
+		}
+
+		private static int hash(String id, int code) {
+			int h = id.hashCode() * 31 + code;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	/**
+	 * collects the rows of a query sorted by source, the values of a
+	 * source are stored in the order a HashSet of them iterates, as
+	 * the cached database mapper returns them
+	 */
+	private static class TableBuilder {
+		private Map<String, Integer> codes = new HashMap<String, Integer>();
+		private List<String> ids = new ArrayList<String>();
+		private short [] sources = new short[1024];
+		private int [] starts = new int[1024];
+		private List<Object> values = new ArrayList<Object>();
+		private String lastCode;
+		private String lastId;
+		private Set<Object> current = new HashSet<Object>();
+
+		void add(String code, String id, Object value) {
+			if(!code.equals(lastCode) || !id.equals(lastId)) {
+				flush();
+				Integer index = codes.get(code);
+				if(index == null) {
+					index = codes.size();
+					codes.put(code, index);
+				}
+				if(ids.size() == sources.length) {
+					sources = Arrays.copyOf(sources, 2 * sources.length);
+				}
+				sources[ids.size()] = index.shortValue();
+				ids.add(id);
+				lastCode = code;
+				lastId = id;
+			}
+			current.add(value);
+		}
+
+		private void flush() {
+			if(lastId != null) {
+				int row = ids.size() - 1;
+				if(row + 1 >= starts.length) {
+					starts = Arrays.copyOf(starts, 2 * starts.length);
+				}
+				starts[row] = values.size();
+				values.addAll(new HashSet<Object>(current));
+				starts[row + 1] = values.size();
+				current = new HashSet<Object>();
+			}
+		}
+
+		Table build() {
+			flush();
+			int rows = ids.size();
+			return new Table(codes, ids.toArray(new String[rows]), Arrays.copyOf(sources, rows),
+					Arrays.copyOf(starts, rows + 1), values.toArray());
+		}
+	}
+
+	/**
+	 * read-only view of the values of one source
+	 */
+	static class ValueSet<T> extends AbstractSet<T> {
+		private Object [] values;
+		private int from;
+		private int to;
+
+		ValueSet(Object [] values, int from, int to) {
+			this.values = values;
+			this.from = from;
+			this.to = to;
+		}
+
+		public int size() {
+			return to - from;
+		}
+
+		public boolean contains(Object o) {
+			return Arrays.asList(values).subList(from, to).contains(o);
+		}
+
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private int next = from;
+
+				public boolean hasNext() {
+					return next < to;
+				}
+
+				@SuppressWarnings("unchecked")
+				public T next() {
+					if(next >= to) {
+						throw new NoSuchElementException();
+					}
+					return (T) values[next++];
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package org.pathvisio.merger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bridgedb.IDMapperException;
+import org.bridgedb.bio.DataSourceTxt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.merger.bench.GpmlGenerator;
+import org.pathvisio.merger.bench.StandInIDMapper;
+import org.pathvisio.merger.graph.Graph;
+import org.pathvisio.merger.graph.XGMMLWriter;
+
+/**
+ * Times the stages of a merge on a synthetic corpus: parsing the
+ * GPML files with the PathVisio model or the fast extractor, mapping them to contributions, merging into the
+ * network and the association network, and writing XGMML. The
+ * mapping database is replaced by {@link StandInIDMapper}.
+ *
+ * @author mkutmon
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StageBenchmark {
+
+	@Param({ "200" })
+	public int pathways;
+
+	@Param({ "0.5" })
+	public double overlap;
+
+	@Param({ "0.1" })
+	public double anchors;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private File dir;
+	private StandInIDMapper mapper;
+	private List<Pathway> parsed;
+	private List<Contribution> network;
+	private Graph graph;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		DataSourceTxt.init();
+		dir = File.createTempFile("gpml-corpus", "");
+		dir.delete();
+		new GpmlGenerator().setPathways(pathways).setOverlap(overlap).setAnchors(anchors).generate(dir);
+		mapper = new StandInIDMapper();
+		parsed = parse();
+		network = map(false);
+		graph = merge(network);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		File [] files = dir.listFiles();
+		if(files != null) {
+			for(File file : files) file.delete();
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public List<Pathway> parse() throws ConverterException {
+		return new PathwayReader(dir, threads).readAll();
+	}
+
+	/**
+	 * parse with the StAX extractor instead of the PathVisio model
+	 */
+	@Benchmark
+	public List<PathwayContent> parseFast() throws ConverterException {
+		PathwayReader reader = new PathwayReader(dir, threads);
+		reader.setFastIngest(true);
+		List<PathwayContent> list = new ArrayList<PathwayContent>();
+		reader.open();
+		try {
+			PathwayContent content;
+			while((content = reader.nextContent()) != null) {
+				list.add(content);
+			}
+		} finally {
+			reader.close();
+		}
+		return list;
+	}
+
+	@Benchmark
+	public List<Contribution> mapNetwork() throws IDMapperException {
+		return map(false);
+	}
+
+	@Benchmark
+	public Graph mergeNetwork() throws IDMapperException {
+		return merge(network);
+	}
+
+	@Benchmark
+	public Graph createNetwork() throws IDMapperException, ConverterException {
+		return create(false);
+	}
+
+	@Benchmark
+	public Graph createAssociationsNetwork() throws IDMapperException, ConverterException {
+		return create(true);
+	}
+
+	@Benchmark
+	public Graph writeXGMML() throws IOException {
+		XGMMLWriter.write(graph, new NullOutputStream(), false);
+		return graph;
+	}
+
+	private List<Contribution> map(boolean associations) throws IDMapperException {
+		ContributionBuilder builder = new ContributionBuilder(mapper, mapper, mapper);
+		List<Contribution> list = new ArrayList<Contribution>();
+		for(Pathway pathway : parsed) {
+			PathwayContent content = new PathwayContent(pathway);
+			list.add(associations ? builder.createAssociations(content) : builder.createNetwork(content));
+		}
+		return list;
+	}
+
+	private Graph merge(List<Contribution> contributions) throws IDMapperException {
+		ParallelMerge merge = new ParallelMerge(new ContributionBuilder(mapper, mapper, mapper), false, threads);
+		try {
+			for(Contribution c : contributions) {
+				merge.add(c);
+			}
+			return merge.getGraph();
+		} finally {
+			merge.close();
+		}
+	}
+
+	/**
+	 * parse, map and merge, as a run of PathwayMerger does
+	 */
+	private Graph create(boolean associations) throws IDMapperException, ConverterException {
+		PathwayReader reader = new PathwayReader(dir, threads, 2 * threads);
+		ParallelMerge merge = new ParallelMerge(new ContributionBuilder(mapper, mapper, mapper), associations, threads);
+		try {
+			reader.open();
+			PathwayContent content;
+			while((content = reader.nextContent()) != null) {
+				merge.add(content);
+			}
+			return merge.getGraph();
+		} finally {
+			reader.close();
+			merge.close();
+		}
+	}
+
+	private static class NullOutputStream extends OutputStream {
+		public void write(int b) { }
+		public void write(byte [] b, int off, int len) { }
+	}
+}
@@ -0,0 +1,195 @@
+package org.pathvisio.merger.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a collection of synthetic GPML pathways. The size of the
+ * collection, the mix of node types, the share of interactions with
+ * anchors and the overlap of identifiers between pathways can be set,
+ * the same seed always gives the same files.
+ *
+ * Identifiers follow the scheme of {@link StandInIDMapper}, so the
+ * generated pathways can be merged without a BridgeDb database.
+ *
+ * @author mkutmon
+ *
+ */
+public class GpmlGenerator {
+
+	private int pathways = 100;
+	private int minNodes = 20;
+	private int maxNodes = 80;
+	// shares of gene products, metabolites and pathway nodes,
+	// the rest are labels without identifier
+	private double genes = 0.6;
+	private double metabolites = 0.25;
+	private double pathwayNodes = 0.05;
+	// interactions with an anchor that other interactions attach to
+	private double anchors = 0.1;
+	// data nodes that are put in a group
+	private double groups = 0.1;
+	// chance that an identifier is taken from the shared pool
+	private double overlap = 0.5;
+	private int poolSize = 5000;
+	private long seed = 1;
+
+	public GpmlGenerator setPathways(int pathways) { this.pathways = pathways; return this; }
+	public GpmlGenerator setNodes(int min, int max) { this.minNodes = min; this.maxNodes = Math.max(min, max); return this; }
+	public GpmlGenerator setMix(double genes, double metabolites, double pathwayNodes) {
+		this.genes = genes;
+		this.metabolites = metabolites;
+		this.pathwayNodes = pathwayNodes;
+		return this;
+	}
+	public GpmlGenerator setAnchors(double anchors) { this.anchors = anchors; return this; }
+	public GpmlGenerator setGroups(double groups) { this.groups = groups; return this; }
+	public GpmlGenerator setOverlap(double overlap) { this.overlap = overlap; return this; }
+	public GpmlGenerator setPoolSize(int poolSize) { this.poolSize = poolSize; return this; }
+	public GpmlGenerator setSeed(long seed) { this.seed = seed; return this; }
+
+	/**
+	 * writes the pathways as WP&lt;n&gt;.gpml into the directory
+	 */
+	public List<File> generate(File dir) throws IOException {
+		if(!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Could not create " + dir.getAbsolutePath());
+		}
+		Random random = new Random(seed);
+		List<File> files = new ArrayList<File>();
+		for(int p = 0; p < pathways; p++) {
+			File file = new File(dir, "WP" + p + ".gpml");
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				writePathway(out, p, random);
+			} finally {
+				out.close();
+			}
+			files.add(file);
+		}
+		return files;
+	}
+
+	private void writePathway(Writer out, int p, Random random) throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<Pathway xmlns=\"http://pathvisio.org/GPML/2013a\" Name=\"Synthetic pathway " + p + "\" Organism=\"Homo sapiens\">\n");
+		out.write("<Graphics BoardWidth=\"2000\" BoardHeight=\"2000\"/>\n");
+
+		int n = minNodes + random.nextInt(maxNodes - minNodes + 1);
+		List<String> nodes = new ArrayList<String>();
+		boolean grouped = false;
+		for(int i = 0; i < n; i++) {
+			String graphId = "n" + i;
+			String group = "";
+			if(random.nextDouble() < groups) {
+				group = " GroupRef=\"g1\"";
+				grouped = true;
+			}
+			double r = random.nextDouble();
+			String type;
+			String database;
+			String id;
+			if(r < genes) {
+				int k = pick(random, p);
+				switch(k % 3) {
+				case 0: database = "Ensembl"; id = StandInIDMapper.ensembl(k); break;
+				case 1: database = "Entrez Gene"; id = StandInIDMapper.entrez(k); break;
+				default: database = "Uniprot-TrEMBL"; id = StandInIDMapper.uniprot(k);
+				}
+				type = k % 2 == 0 ? "GeneProduct" : "Protein";
+			} else if(r < genes + metabolites) {
+				int k = pick(random, p);
+				if(k % 2 == 0) {
+					database = "HMDB"; id = StandInIDMapper.hmdb(k);
+				} else {
+					database = "KEGG Compound"; id = StandInIDMapper.kegg(k);
+				}
+				type = "Metabolite";
+			} else if(r < genes + metabolites + pathwayNodes) {
+				database = "WikiPathways";
+				id = "WP" + random.nextInt(Math.max(1, pathways));
+				type = "Pathway";
+			} else {
+				database = "";
+				id = "";
+				type = "GeneProduct";
+			}
+			out.write("<DataNode TextLabel=\"" + (id.length() == 0 ? "label " + i : id) + "\" GraphId=\"" + graphId + "\" Type=\"" + type + "\"" + group + ">");
+			out.write("<Graphics CenterX=\"" + (50 + (i % 20) * 100) + "\" CenterY=\"" + (20 + (i / 20) * 40) + "\" Width=\"80\" Height=\"20\" ZOrder=\"32768\" FontSize=\"10\" Valign=\"Middle\"/>");
+			out.write("<Xref Database=\"" + database + "\" ID=\"" + id + "\"/></DataNode>\n");
+			nodes.add(graphId);
+		}
+
+		String [] arrows = { "Arrow", "mim-conversion", "TBar", "mim-catalysis" };
+		int lines = n;
+		int anchor = 0;
+		for(int i = 0; i < lines && n > 1; i++) {
+			String start = nodes.get(random.nextInt(n));
+			String end = nodes.get(random.nextInt(n));
+			String arrow = arrows[random.nextInt(arrows.length)];
+			if(random.nextDouble() < anchors) {
+				String anchorId = "a" + anchor++;
+				writeLine(out, "l" + i, start, end, arrow, "<Anchor Position=\"0.5\" Shape=\"None\" GraphId=\"" + anchorId + "\"/>");
+				// one or two interactions attach to the anchor
+				int attached = 1 + random.nextInt(2);
+				for(int j = 0; j < attached; j++) {
+					writeLine(out, "x" + i + "_" + j, nodes.get(random.nextInt(n)), anchorId, "mim-catalysis", "");
+				}
+			} else {
+				writeLine(out, "l" + i, start, end, arrow, "");
+			}
+		}
+		if(grouped) {
+			out.write("<Group GroupId=\"g1\" GraphId=\"grp1\" Style=\"Complex\"/>\n");
+		}
+		out.write("<InfoBox CenterX=\"0\" CenterY=\"0\"/>\n");
+		out.write("</Pathway>\n");
+	}
+
+	private static void writeLine(Writer out, String graphId, String start, String end, String arrow, String anchor) throws IOException {
+		out.write("<Interaction GraphId=\"" + graphId + "\"><Graphics ZOrder=\"12288\" LineThickness=\"1.0\">");
+		out.write("<Point X=\"1\" Y=\"1\" GraphRef=\"" + start + "\" RelX=\"0\" RelY=\"0\"/>");
+		out.write("<Point X=\"2\" Y=\"2\" GraphRef=\"" + end + "\" RelX=\"0\" RelY=\"0\" ArrowHead=\"" + arrow + "\"/>");
+		out.write(anchor);
+		out.write("</Graphics><Xref Database=\"\" ID=\"\"/></Interaction>\n");
+	}
+
+	/**
+	 * an identifier number, from the shared pool or from a range
+	 * only this pathway uses
+	 */
+	private int pick(Random random, int p) {
+		if(random.nextDouble() < overlap) {
+			return random.nextInt(poolSize);
+		}
+		return poolSize + p * maxNodes + random.nextInt(maxNodes);
+	}
+
+	/**
+	 * usage: GpmlGenerator dir [pathways] [minNodes] [maxNodes] [geneShare]
+	 * [metaboliteShare] [pathwayShare] [anchorShare] [overlap] [seed]
+	 */
+	public static void main(String [] args) throws IOException {
+		if(args.length == 0) {
+			System.out.println("usage: GpmlGenerator dir [pathways] [minNodes] [maxNodes] [geneShare] " +
+					"[metaboliteShare] [pathwayShare] [anchorShare] [overlap] [seed]");
+			return;
+		}
+		GpmlGenerator generator = new GpmlGenerator();
+		if(args.length > 1) generator.setPathways(Integer.parseInt(args[1]));
+		if(args.length > 3) generator.setNodes(Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+		if(args.length > 6) generator.setMix(Double.parseDouble(args[4]), Double.parseDouble(args[5]), Double.parseDouble(args[6]));
+		if(args.length > 7) generator.setAnchors(Double.parseDouble(args[7]));
+		if(args.length > 8) generator.setOverlap(Double.parseDouble(args[8]));
+		if(args.length > 9) generator.setSeed(Long.parseLong(args[9]));
+		List<File> files = generator.generate(new File(args[0]));
+		System.out.println("Wrote " + files.size() + " pathways to " + args[0]);
+	}
+}
@@ -0,0 +1,95 @@
+package org.pathvisio.merger.bench;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Local stand-in for the gene and metabolite databases, for the
+ * identifiers written by {@link GpmlGenerator}. Entrez Gene and
+ * Uniprot identifiers map to Ensembl and KEGG compounds to HMDB,
+ * except for every fifth number, which stays unmapped. Ensembl
+ * genes have a symbol, except for every seventh.
+ *
+ * Mapping is computed from the identifier, so the mapper costs
+ * almost nothing and benchmarks measure PathwayMerger itself.
+ *
+ * @author mkutmon
+ *
+ */
+public class StandInIDMapper implements IDMapper, AttributeMapper {
+
+	public static String ensembl(int k) { return String.format("ENSG%011d", k); }
+	public static String entrez(int k) { return Integer.toString(100000 + k); }
+	public static String uniprot(int k) { return String.format("P%05d", k); }
+	public static String hmdb(int k) { return String.format("HMDB%05d", k); }
+	public static String kegg(int k) { return String.format("C%05d", k); }
+
+	private Set<Xref> map(Xref ref, DataSource target) {
+		String id = ref.getId();
+		String code = target.getSystemCode();
+		int k = -1;
+		if(code.equals("En") && id.matches("\\d+")) {
+			k = Integer.parseInt(id) - 100000;
+		} else if(code.equals("En") && id.startsWith("P")) {
+			k = Integer.parseInt(id.substring(1));
+		} else if(code.equals("Ch") && id.startsWith("C")) {
+			k = Integer.parseInt(id.substring(1));
+		}
+		if(k < 0 || k % 5 == 0) {
+			return new HashSet<Xref>();
+		}
+		Set<Xref> result = new HashSet<Xref>();
+		result.add(new Xref(code.equals("En") ? ensembl(k) : hmdb(k), target));
+		return result;
+	}
+
+	public Set<Xref> mapID(Xref ref, DataSource... targets) throws IDMapperException {
+		return map(ref, targets[0]);
+	}
+
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> refs, DataSource... targets) throws IDMapperException {
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for(Xref ref : refs) {
+			result.put(ref, map(ref, targets[0]));
+		}
+		return result;
+	}
+
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException {
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		String id = ref.getId();
+		if(id.startsWith("ENSG")) {
+			int k = Integer.parseInt(id.substring(4));
+			if(k % 7 != 0) {
+				result.put("Symbol", Collections.singleton("GENE" + k));
+			}
+		}
+		return result;
+	}
+
+	public Set<String> getAttributes(Xref ref, String attrType) throws IDMapperException {
+		Set<String> values = getAttributes(ref).get(attrType);
+		return values == null ? new HashSet<String>() : values;
+	}
+
+	public boolean xrefExists(Xref ref) throws IDMapperException { return true; }
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException { return new HashSet<Xref>(); }
+	public IDMapperCapabilities getCapabilities() { return null; }
+	public void close() throws IDMapperException { }
+	public boolean isConnected() { return true; }
+	public boolean isFreeAttributeSearchSupported() { return false; }
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) throws IDMapperException { return new HashMap<Xref, String>(); }
+	public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit) throws IDMapperException { return new HashMap<Xref, Set<String>>(); }
+	public Set<String> getAttributeSet() throws IDMapperException { return Collections.singleton("Symbol"); }
+}